@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with allocation profiling on, writing JSON results
+ * that can be compared against the files in results/. The JVM's path and
+ * JDK version are left out of them; vmVersion still says which JVM it was.
+ * 
+ * Usage: java -jar target/benchmarks.jar [include regex] [result file] [JMH options]
+ * 
+ * Any JMH options given (-f 5, -r 5s, ...) override the annotations.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException, IOException,
+            CommandLineOptionException {
+        String include = args.length > 0 ? args[0] : "com\\.entityreborn\\.chirc\\..*Benchmark.*";
+        String result = args.length > 1 ? args[1] : "results/latest.json";
+        String[] jmh = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : new String[0];
+        
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(jmh))
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build();
+        
+        new Runner(options).run();
+        strip(Paths.get(result));
+    }
+    
+    /**
+     * Drop the lines naming the local JVM from a result file.
+     */
+    private static void strip(Path result) throws IOException {
+        if (!Files.exists(result)) {
+            return;
+        }
+        
+        List<String> kept = new ArrayList<String>();
+        
+        for (String line : Files.readAllLines(result, StandardCharsets.UTF_8)) {
+            String trimmed = line.trim();
+            
+            if (!trimmed.startsWith("\"jvm\" :") && !trimmed.startsWith("\"jdkVersion\" :")) {
+                kept.add(line);
+            }
+        }
+        
+        Files.write(result, kept, StandardCharsets.UTF_8);
+    }
+}
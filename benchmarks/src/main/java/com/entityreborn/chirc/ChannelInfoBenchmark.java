@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import static org.mockito.Mockito.when;
+
+import com.entityreborn.socbot.Channel;
+import com.entityreborn.socbot.User;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.Target;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building irc_channel_info's array for channels of various sizes, both from
+ * the cached user list and after the channel has changed. Users are mocks, so
+ * each getName() costs a little more than it would with SocCore; compare runs
+ * against each other rather than reading the numbers as absolute.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 3, jvmArgsAppend = {"-XX:+UseSerialGC", "-Xms512m", "-Xmx512m"})
+public class ChannelInfoBenchmark {
+    private static final String[] ALL = {"name", "modes", "topic", "users"};
+    private static final String[] NAME_TOPIC = {"name", "topic"};
+    
+    @Param({"50", "500", "2000"})
+    public int users;
+    
+    private Channel channel;
+    private ChannelSnapshot snapshot;
+    
+    @Setup
+    public void setup() {
+        Map<User, String> modes = new HashMap<User, String>();
+        
+        for (int i = 0; i < users; i++) {
+            modes.put(EventDataBenchmark.mockUser("user" + i), i % 20 == 0 ? "o" : "");
+        }
+        
+        channel = EventDataBenchmark.mockChannel("#minecraft");
+        when(channel.getModes()).thenReturn("nt");
+        when(channel.getTopic()).thenReturn("Welcome to the server channel!");
+        when(channel.getUserModes()).thenReturn(modes);
+        snapshot = new ChannelSnapshot();
+    }
+    
+    @Benchmark
+    public CArray cached() {
+        return Functions.irc_channel_info.build(channel, snapshot, ALL, Target.UNKNOWN);
+    }
+    
+    @Benchmark
+    public CArray changed() {
+        snapshot.bump();
+        
+        return Functions.irc_channel_info.build(channel, snapshot, ALL, Target.UNKNOWN);
+    }
+    
+    @Benchmark
+    public CArray nameAndTopic() {
+        return Functions.irc_channel_info.build(channel, snapshot, NAME_TOPIC, Target.UNKNOWN);
+    }
+}
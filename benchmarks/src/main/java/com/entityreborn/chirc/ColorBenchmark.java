@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Color translation, as used by irc_mc2irc_colors, irc_irc2mc_colors and
+ * irc_strip_color.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 3, jvmArgsAppend = {"-XX:+UseSerialGC", "-Xms512m", "-Xmx512m"})
+public class ColorBenchmark {
+    private final String plain = "<Notch> just an ordinary chat line with no formatting in it at all";
+    private final String mc = "§7<§aNotch§7> §fjust a §lchat§r line with §csome §ecolors §oin §nit";
+    private final String irc = "\u000314<\u000309Notch\u000314> \u000300just a \u0002chat\u000f line"
+            + " with \u000304,01some \u000308colors \u001din \u001fit";
+    
+    @Benchmark
+    public String mcToIrc() {
+        return ColorTranslator.mcToIrc(mc);
+    }
+    
+    @Benchmark
+    public String mcToIrcPlain() {
+        return ColorTranslator.mcToIrc(plain);
+    }
+    
+    @Benchmark
+    public String ircToMc() {
+        return ColorTranslator.ircToMc(irc);
+    }
+    
+    @Benchmark
+    public String ircToMcPlain() {
+        return ColorTranslator.ircToMc(plain);
+    }
+    
+    @Benchmark
+    public String stripIrc() {
+        return ColorTranslator.stripIrc(irc);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.entityreborn.socbot.Channel;
+import com.entityreborn.socbot.Numerics;
+import com.entityreborn.socbot.Packet;
+import com.entityreborn.socbot.SocBot;
+import com.entityreborn.socbot.User;
+import com.entityreborn.socbot.events.CTCPEvent;
+import com.entityreborn.socbot.events.NumericEvent;
+import com.entityreborn.socbot.events.PacketReceivedEvent;
+import com.entityreborn.socbot.events.PrivmsgEvent;
+import com.laytonsmith.core.exceptions.EventException;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Event data construction for the busiest irc_* events. Each wrapper is built
+ * once from mocked SocCore events; the cached data is dropped before every
+ * call so only evaluate() is measured. The "all" benchmarks read every key,
+ * as CommandHelper does when it builds the event array, and the "one"
+ * benchmarks read only the message or line.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 3, jvmArgsAppend = {"-XX:+UseSerialGC", "-Xms512m", "-Xmx512m"})
+public class EventDataBenchmark {
+    private final Events.irc_msg msgEvent = new Events.irc_msg();
+    private final Events.irc_action actionEvent = new Events.irc_action();
+    private final Events.irc_recv_raw rawEvent = new Events.irc_recv_raw();
+    private final Events.irc_numeric numericEvent = new Events.irc_numeric();
+    
+    private Events.PrivMsg msg;
+    private Events.Action action;
+    private Events.RecvLine raw;
+    private Events.Numeric numeric;
+    
+    static SocBot mockBot(String id) {
+        SocBot bot = mock(SocBot.class);
+        when(bot.getID()).thenReturn(id);
+        when(bot.isConnected()).thenReturn(true);
+        
+        return bot;
+    }
+    
+    static User mockUser(String name) {
+        User user = mock(User.class);
+        when(user.getName()).thenReturn(name);
+        
+        return user;
+    }
+    
+    static Channel mockChannel(String name) {
+        Channel channel = mock(Channel.class);
+        when(channel.getName()).thenReturn(name);
+        
+        return channel;
+    }
+    
+    static Events.PrivMsg privMsg(SocBot bot) {
+        User sender = mockUser("Notch");
+        Channel target = mockChannel("#minecraft");
+        
+        PrivmsgEvent e = mock(PrivmsgEvent.class);
+        when(e.getBot()).thenReturn(bot);
+        when(e.getSender()).thenReturn(sender);
+        when(e.getTarget()).thenReturn(target);
+        when(e.getMessage()).thenReturn("just an ordinary line of chat in a busy channel");
+        
+        return new Events.PrivMsg(e);
+    }
+    
+    @Setup
+    public void setup() {
+        SocBot bot = mockBot("bench");
+        User sender = mockUser("Notch");
+        Channel target = mockChannel("#minecraft");
+        
+        msg = privMsg(bot);
+        
+        CTCPEvent ctcp = mock(CTCPEvent.class);
+        when(ctcp.getBot()).thenReturn(bot);
+        when(ctcp.getSender()).thenReturn(sender);
+        when(ctcp.getTarget()).thenReturn(target);
+        when(ctcp.getType()).thenReturn("ACTION");
+        when(ctcp.getMessage()).thenReturn("waves at everyone");
+        action = new Events.Action(ctcp);
+        
+        Packet packet = mock(Packet.class);
+        when(packet.getOriginalLine()).thenReturn(
+                ":Notch!notch@example.com PRIVMSG #minecraft :just an ordinary line of chat");
+        when(packet.getArgs()).thenReturn(Arrays.asList("Bot", "#minecraft", "42", "users"));
+        
+        PacketReceivedEvent recv = mock(PacketReceivedEvent.class);
+        when(recv.getBot()).thenReturn(bot);
+        when(recv.getPacket()).thenReturn(packet);
+        raw = new Events.RecvLine(recv);
+        
+        NumericEvent num = mock(NumericEvent.class);
+        when(num.getBot()).thenReturn(bot);
+        when(num.getNumeric()).thenReturn(anyNumeric());
+        when(num.getMessage()).thenReturn("users");
+        when(num.getPacket()).thenReturn(packet);
+        numeric = new Events.Numeric(num);
+    }
+    
+    private static Numerics.Numeric anyNumeric() {
+        if (Numerics.Numeric.class.isEnum()) {
+            return Numerics.Numeric.class.getEnumConstants()[0];
+        }
+        
+        return mock(Numerics.Numeric.class);
+    }
+    
+    private static void consumeAll(Map<String, Mixed> data, Blackhole bh) {
+        for (Map.Entry<String, Mixed> entry : data.entrySet()) {
+            bh.consume(entry.getValue());
+        }
+    }
+    
+    @Benchmark
+    public void msgAll(Blackhole bh) throws EventException {
+        msg.setData(null);
+        consumeAll(msgEvent.evaluate(msg), bh);
+    }
+    
+    @Benchmark
+    public Mixed msgOne() throws EventException {
+        msg.setData(null);
+        return msgEvent.evaluate(msg).get("message");
+    }
+    
+    @Benchmark
+    public void actionAll(Blackhole bh) throws EventException {
+        action.setData(null);
+        consumeAll(actionEvent.evaluate(action), bh);
+    }
+    
+    @Benchmark
+    public void recvRawAll(Blackhole bh) throws EventException {
+        raw.setData(null);
+        consumeAll(rawEvent.evaluate(raw), bh);
+    }
+    
+    @Benchmark
+    public Mixed recvRawOne() throws EventException {
+        raw.setData(null);
+        return rawEvent.evaluate(raw).get("line");
+    }
+    
+    @Benchmark
+    public void numericAll(Blackhole bh) throws EventException {
+        numeric.setData(null);
+        consumeAll(numericEvent.evaluate(numeric), bh);
+    }
+    
+    @Benchmark
+    public Mixed numericOne() throws EventException {
+        numeric.setData(null);
+        return numericEvent.evaluate(numeric).get("message");
+    }
+}
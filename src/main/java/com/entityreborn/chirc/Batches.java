@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gathers the lines of IRCv3 BATCH blocks for a bot, so each block can be
+ * handed to scripts as a single irc_batch event.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Batches {
+    /** Lines kept per batch; anything past this is dropped. */
+    public static final int MAX_LINES = 5000;
+    /** Batches kept open at once; the oldest is forgotten past this. */
+    public static final int MAX_OPEN = 32;
+    
+    public static class Batch {
+        private final String ref;
+        private final String type;
+        private final List<String> params;
+        private final List<String> lines = new ArrayList<String>();
+        private boolean truncated = false;
+        
+        public Batch(String ref, String type, List<String> params) {
+            this.ref = ref;
+            this.type = type;
+            this.params = params;
+        }
+        
+        public String getRef() {
+            return ref;
+        }
+        
+        public String getType() {
+            return type;
+        }
+        
+        public List<String> getParams() {
+            return params;
+        }
+        
+        /**
+         * The raw lines in the batch, tags and all.
+         */
+        public List<String> getLines() {
+            return lines;
+        }
+        
+        public boolean isTruncated() {
+            return truncated;
+        }
+    }
+    
+    private final Map<String, Batch> open = new LinkedHashMap<String, Batch>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Batch> eldest) {
+            return size() > MAX_OPEN;
+        }
+    };
+    // The thread handling a line that belongs to a batch, if any, and
+    // that batch.
+    private volatile Thread batched;
+    private volatile Batch current;
+    
+    /**
+     * Note a raw line. Returns the batch it finished, if it's the end of
+     * one, or null. The lines in a batch are only kept if collect is set.
+     */
+    public synchronized Batch changed(String line, boolean collect) {
+        batched = null;
+        current = null;
+        
+        if (line == null) {
+            return null;
+        }
+        
+        boolean tagged = line.startsWith("@");
+        
+        if (!tagged && line.indexOf("BATCH ") == -1) {
+            return null;
+        }
+        
+        List<String> parts = MessageTags.split(line);
+        
+        if (parts.size() >= 2 && parts.get(0).equals("BATCH")) {
+            String ref = parts.get(1);
+            
+            if (ref.startsWith("+") && parts.size() >= 3) {
+                Batch batch = new Batch(ref.substring(1), parts.get(2),
+                        Collections.unmodifiableList(new ArrayList<String>(parts.subList(3, parts.size()))));
+                open.put(batch.ref, batch);
+                mark(batch);
+            } else if (ref.startsWith("-")) {
+                Batch done = open.remove(ref.substring(1));
+                
+                if (done != null) {
+                    mark(done);
+                }
+                
+                return done;
+            }
+            
+            return null;
+        }
+        
+        if (!tagged || open.isEmpty()) {
+            return null;
+        }
+        
+        Batch batch = open.get(MessageTags.parse(line).get("batch"));
+        
+        if (batch != null) {
+            if (collect && batch.lines.size() < MAX_LINES) {
+                batch.lines.add(line);
+            } else if (collect) {
+                batch.truncated = true;
+            }
+            
+            mark(batch);
+        }
+        
+        return null;
+    }
+    
+    private void mark(Batch batch) {
+        current = batch;
+        batched = Thread.currentThread();
+    }
+    
+    /**
+     * Whether the line being handled on this thread is part of a batch.
+     */
+    public boolean isBatched() {
+        return batched == Thread.currentThread();
+    }
+    
+    /**
+     * Whether the line being handled on this thread is part of a
+     * chathistory batch, rather than something said just now.
+     */
+    public boolean isHistory() {
+        Batch batch = current;
+        
+        if (!isBatched() || batch == null) {
+            return false;
+        }
+        
+        return batch.type.equalsIgnoreCase("chathistory")
+                || batch.type.equalsIgnoreCase("draft/chathistory");
+    }
+    
+    public synchronized void clear() {
+        open.clear();
+        batched = null;
+        current = null;
+    }
+}
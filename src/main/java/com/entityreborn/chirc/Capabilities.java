@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.entityreborn.socbot.SocBot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Negotiates IRCv3 capabilities for a bot. CAP LS is sent as soon as the
+ * connection is up, so the server holds registration until we've asked for
+ * whichever of the wanted capabilities it offers and sent CAP END.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Capabilities {
+    /** What irc_connect asks for when caps is just true. */
+    public static final List<String> DEFAULT = Collections.unmodifiableList(
+            Arrays.asList("message-tags", "server-time", "batch"));
+    
+    private Set<String> wanted = Collections.emptySet();
+    private final Set<String> offered = new HashSet<String>();
+    private volatile Set<String> enabled = Collections.emptySet();
+    private boolean negotiating = false;
+    
+    /**
+     * Set what to ask for on the next connection. Empty to skip
+     * negotiating entirely.
+     */
+    public synchronized void setWanted(Collection<String> caps) {
+        wanted = new LinkedHashSet<String>(caps);
+    }
+    
+    public boolean isEnabled(String cap) {
+        return enabled.contains(cap);
+    }
+    
+    public Set<String> getEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Start negotiating, once the bot has connected.
+     */
+    public synchronized void start(SocBot bot) {
+        reset();
+        
+        if (wanted.isEmpty()) {
+            return;
+        }
+        
+        negotiating = true;
+        bot.sendLine("CAP LS 302");
+    }
+    
+    /**
+     * Follow the negotiation from a raw line, if it's a CAP reply.
+     */
+    public synchronized void changed(SocBot bot, String line) {
+        if (wanted.isEmpty() || line == null || line.indexOf("CAP ") == -1) {
+            return;
+        }
+        
+        List<String> parts = MessageTags.split(line);
+        
+        // CAP <nick> <subcommand> [*] :<caps>
+        if (parts.size() < 4 || !parts.get(0).equals("CAP")) {
+            return;
+        }
+        
+        String sub = parts.get(2);
+        boolean more = parts.size() > 4 && parts.get(3).equals("*");
+        List<String> caps = new ArrayList<String>();
+        
+        for (String cap : parts.get(parts.size() - 1).split(" ")) {
+            int equals = cap.indexOf('=');
+            
+            if (!cap.isEmpty()) {
+                caps.add(equals == -1 ? cap : cap.substring(0, equals));
+            }
+        }
+        
+        if (sub.equals("LS")) {
+            offered.addAll(caps);
+            
+            if (!more && negotiating) {
+                request(bot, offered);
+            }
+        } else if (sub.equals("NEW")) {
+            offered.addAll(caps);
+            request(bot, caps);
+        } else if (sub.equals("ACK")) {
+            Set<String> now = new HashSet<String>(enabled);
+            
+            for (String cap : caps) {
+                if (cap.startsWith("-")) {
+                    now.remove(cap.substring(1));
+                } else {
+                    now.add(cap);
+                }
+            }
+            
+            enabled = Collections.unmodifiableSet(now);
+            end(bot, more);
+        } else if (sub.equals("NAK")) {
+            end(bot, more);
+        } else if (sub.equals("DEL")) {
+            Set<String> now = new HashSet<String>(enabled);
+            now.removeAll(caps);
+            offered.removeAll(caps);
+            enabled = Collections.unmodifiableSet(now);
+        }
+    }
+    
+    private void request(SocBot bot, Collection<String> available) {
+        StringBuilder req = new StringBuilder();
+        
+        for (String cap : wanted) {
+            if (available.contains(cap) && !enabled.contains(cap)) {
+                if (req.length() > 0) {
+                    req.append(' ');
+                }
+                
+                req.append(cap);
+            }
+        }
+        
+        if (req.length() > 0) {
+            bot.sendLine("CAP REQ :" + req);
+        } else {
+            end(bot, false);
+        }
+    }
+    
+    private void end(SocBot bot, boolean more) {
+        if (negotiating && !more) {
+            negotiating = false;
+            bot.sendLine("CAP END");
+        }
+    }
+    
+    /**
+     * Forget what was negotiated, such as when the bot disconnects.
+     */
+    public synchronized void reset() {
+        offered.clear();
+        enabled = Collections.emptySet();
+        negotiating = false;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.laytonsmith.abstraction.MCServer;
+import com.laytonsmith.abstraction.StaticLayer;
+import com.laytonsmith.core.constructs.Target;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Relays an IRC channel to the Minecraft server as broadcasts, without going
+ * through a script. Lines from every relay are gathered and broadcast
+ * together on the main thread, so a busy channel costs one main thread task
+ * per burst rather than one event per line.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class ChannelRelay {
+    public static final String DEFAULT_FORMAT = "[%channel%] <%nick%> %message%";
+    public static final String DEFAULT_ACTION = "[%channel%] * %nick% %message%";
+    
+    private static class Line {
+        private final String message;
+        private final String permission;
+        
+        public Line(String message, String permission) {
+            this.message = message;
+            this.permission = permission;
+        }
+    }
+    
+    private static final ConcurrentLinkedQueue<Line> pending = new ConcurrentLinkedQueue<Line>();
+    private static final AtomicBoolean scheduled = new AtomicBoolean(false);
+    
+    private final String channel;
+    private final Template format;
+    private final Template action;
+    private final String permission;
+    private final boolean mccolors;
+    private final List<String> skip;
+    private final boolean events;
+    
+    /**
+     * Permission may be null to broadcast to everyone. Messages starting
+     * with any of the skip prefixes aren't relayed, and go to scripts as
+     * usual; events sends relayed messages to scripts as well.
+     */
+    public ChannelRelay(String channel, String format, String action, String permission,
+            boolean mccolors, List<String> skip, boolean events) {
+        this.channel = channel;
+        this.format = new Template(format, "channel", "nick", "message");
+        this.action = new Template(action, "channel", "nick", "message");
+        this.permission = permission;
+        this.mccolors = mccolors;
+        this.skip = Collections.unmodifiableList(new ArrayList<String>(skip));
+        this.events = events;
+    }
+    
+    public String getChannel() {
+        return channel;
+    }
+    
+    /**
+     * Relay a message or action from the channel. Returns true if scripts
+     * should still get the event for it.
+     */
+    public boolean relay(String nick, String message, boolean isAction) {
+        for (int i = 0; i < skip.size(); i++) {
+            if (message.startsWith(skip.get(i))) {
+                return true;
+            }
+        }
+        
+        if (mccolors) {
+            message = ColorTranslator.ircToMc(message);
+        }
+        
+        Template template = isAction ? action : format;
+        pending.add(new Line(template.fill(channel, nick, message), permission));
+        
+        if (scheduled.compareAndSet(false, true)) {
+            StaticLayer.GetConvertor().runOnMainThreadLater(Target.UNKNOWN, new Runnable() {
+                public void run() {
+                    broadcast();
+                }
+            });
+        }
+        
+        return events;
+    }
+    
+    private static void broadcast() {
+        // Anything added from here on needs a new task.
+        scheduled.set(false);
+        
+        MCServer server = StaticLayer.GetConvertor().GetServer();
+        Line line;
+        
+        while ((line = pending.poll()) != null) {
+            if (line.permission == null) {
+                server.broadcastMessage(line.message);
+            } else {
+                server.broadcastMessage(line.message, line.permission);
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.entityreborn.socbot.Channel;
+import com.entityreborn.socbot.SocBot;
+import com.entityreborn.socbot.User;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.Target;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The cached user list of a channel, kept per bot by channel name and
+ * dropped when the bot leaves the channel or disconnects. The version goes
+ * up whenever a line from the server changes the channel, and
+ * the list is only rebuilt when someone asks for it at a newer version.
+ *
+ * Raw lines arrive before SocCore applies them, so a channel is marked as
+ * changing until the line has been handled, and nothing built meanwhile is
+ * kept.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class ChannelSnapshot {
+    // Snapshots changed by the line each bot is handling, by bot id.
+    private static final ConcurrentMap<String, Queue<ChannelSnapshot>> changing =
+            new ConcurrentHashMap<String, Queue<ChannelSnapshot>>();
+    
+    private final AtomicInteger version = new AtomicInteger();
+    private volatile boolean inFlight = false;
+    private int built = -1;
+    // Nicks and their modes, in pairs.
+    private String[] users;
+    
+    /**
+     * Get the snapshot for one of a bot's channels, creating it the first
+     * time. A bot that's no longer tracked gets a new one each call.
+     */
+    public static ChannelSnapshot of(SocBot bot, Channel chan) {
+        ConcurrentMap<String, ChannelSnapshot> snapshots = Tracking.getSnapshots(bot);
+        
+        if (snapshots == null) {
+            return new ChannelSnapshot();
+        }
+        
+        String name = MetaStore.fold(chan.getName());
+        ChannelSnapshot snapshot = snapshots.get(name);
+        
+        if (snapshot == null) {
+            snapshots.putIfAbsent(name, new ChannelSnapshot());
+            snapshot = snapshots.get(name);
+        }
+        
+        return snapshot;
+    }
+    
+    /**
+     * Drop the snapshot of a channel the bot left.
+     */
+    private static void forget(SocBot bot, String channel) {
+        ConcurrentMap<String, ChannelSnapshot> snapshots = Tracking.getSnapshots(bot);
+        
+        if (snapshots != null) {
+            snapshots.remove(MetaStore.fold(channel));
+        }
+    }
+    
+    public int getVersion() {
+        return version.get();
+    }
+    
+    /**
+     * Mark the channel as changed.
+     */
+    public void bump() {
+        version.incrementAndGet();
+    }
+    
+    /**
+     * Mark the channel as changed by a line SocCore hasn't applied yet.
+     */
+    private void begin(SocBot bot) {
+        inFlight = true;
+        version.incrementAndGet();
+        
+        Queue<ChannelSnapshot> queue = changing.get(bot.getID());
+        
+        if (queue == null) {
+            changing.putIfAbsent(bot.getID(), new ConcurrentLinkedQueue<ChannelSnapshot>());
+            queue = changing.get(bot.getID());
+        }
+        
+        queue.add(this);
+    }
+    
+    /**
+     * Mark every channel changed by the bot's last line as settled, once
+     * SocCore has handled it.
+     */
+    public static void settle(SocBot bot) {
+        Queue<ChannelSnapshot> queue = changing.get(bot.getID());
+        
+        if (queue == null) {
+            return;
+        }
+        
+        ChannelSnapshot snapshot;
+        
+        while ((snapshot = queue.poll()) != null) {
+            snapshot.version.incrementAndGet();
+            snapshot.inFlight = false;
+        }
+    }
+    
+    /**
+     * The channel's users and their modes, as a new array each call. The
+     * list behind it is only rebuilt if the channel changed since the last
+     * call.
+     */
+    public CArray getUsers(Channel chan, Target t) {
+        String[] current;
+        
+        synchronized (this) {
+            int at = version.get();
+            
+            if (inFlight) {
+                current = collect(chan);
+            } else {
+                if (users == null || built != at) {
+                    users = collect(chan);
+                    built = at;
+                }
+                
+                current = users;
+            }
+        }
+        
+        return wrap(current, t);
+    }
+    
+    private static String[] collect(Channel chan) {
+        Map<User, String> modes = chan.getUserModes();
+        String[] users = new String[modes.size() * 2];
+        int i = 0;
+        
+        for (Entry<User, String> entry : modes.entrySet()) {
+            // The map can grow while we walk it.
+            if (i == users.length) {
+                break;
+            }
+            
+            users[i++] = entry.getKey().getName();
+            users[i++] = entry.getValue();
+        }
+        
+        if (i < users.length) {
+            String[] trimmed = new String[i];
+            System.arraycopy(users, 0, trimmed, 0, i);
+            users = trimmed;
+        }
+        
+        return users;
+    }
+    
+    private static CArray wrap(String[] users, Target t) {
+        CArray retn = new CArray(t);
+        
+        for (int i = 0; i < users.length; i += 2) {
+            CArray data = new CArray(t);
+            data.set("modes", users[i + 1]);
+            
+            retn.set(users[i], data, t);
+        }
+        
+        return retn;
+    }
+    
+    /**
+     * Mark whichever channels a raw server line changes, and drop any cached
+     * targets it makes stale.
+     */
+    public static void changed(SocBot bot, String line) {
+        // Whatever the previous line changed has been applied by now.
+        settle(bot);
+        
+        if (line == null) {
+            return;
+        }
+        
+        int len = line.length();
+        int i = 0;
+        
+        // Message tags.
+        if (i < len && line.charAt(i) == '@') {
+            i = next(line, i);
+        }
+        
+        String nick = null;
+        
+        if (i < len && line.charAt(i) == ':') {
+            int end = line.indexOf(' ', i);
+            
+            if (end == -1) {
+                return;
+            }
+            
+            int bang = line.indexOf('!', i);
+            nick = line.substring(i + 1, bang == -1 || bang > end ? end : bang);
+            i = next(line, i);
+        }
+        
+        int end = end(line, i);
+        String command = line.substring(i, end);
+        i = next(line, i);
+        
+        if (command.equals("QUIT") || command.equals("NICK")) {
+            invalidate(bot, nick);
+            changedUser(bot, nick);
+            return;
+        }
+        
+        int param;
+        
+        if (command.equals("JOIN") || command.equals("PART") || command.equals("KICK")
+                || command.equals("MODE") || command.equals("TOPIC")) {
+            param = 0;
+        } else if (command.equals("332") || command.equals("324") || command.equals("366")) {
+            // RPL_TOPIC, RPL_CHANNELMODEIS, RPL_ENDOFNAMES
+            param = 1;
+        } else if (command.equals("353")) {
+            // RPL_NAMREPLY: <me> <type> <channel> :names
+            param = 2;
+        } else {
+            return;
+        }
+        
+        for (; param > 0 && i < len; param--) {
+            i = next(line, i);
+        }
+        
+        if (i >= len) {
+            return;
+        }
+        
+        if (line.charAt(i) == ':') {
+            i++;
+        }
+        
+        String name = line.substring(i, end(line, i));
+        
+        if (command.equals("PART") || command.equals("KICK")) {
+            // The user leaving is the sender of a PART, or the next
+            // parameter of a KICK.
+            String gone = nick;
+            
+            if (command.equals("KICK")) {
+                int at = next(line, i);
+                
+                if (at < len && line.charAt(at) == ':') {
+                    at++;
+                }
+                
+                gone = at < len ? line.substring(at, end(line, at)) : null;
+            }
+            
+            invalidate(bot, gone);
+            
+            // Only the bot leaving takes the channel out of reach.
+            String self = bot.getNickname();
+            
+            if (gone != null && self != null && MetaStore.fold(gone).equals(MetaStore.fold(self))) {
+                invalidate(bot, name);
+                forget(bot, name);
+                return;
+            }
+        }
+        
+        Channel chan = bot.getChannel(name);
+        
+        if (chan != null) {
+            of(bot, chan).begin(bot);
+        }
+    }
+    
+    private static void invalidate(SocBot bot, String name) {
+        Targets targets = Tracking.getTargets(bot);
+        
+        if (targets != null) {
+            targets.invalidate(name);
+        }
+    }
+    
+    private static void changedUser(SocBot bot, String nick) {
+        User user = nick == null ? null : bot.getUser(nick);
+        
+        for (Channel chan : bot.getChannels()) {
+            // If the user is already gone we can't tell, so bump them all.
+            if (user == null || chan.getUserModes().containsKey(user)) {
+                of(bot, chan).begin(bot);
+            }
+        }
+    }
+    
+    private static int end(String line, int i) {
+        int end = line.indexOf(' ', i);
+        
+        return end == -1 ? line.length() : end;
+    }
+    
+    private static int next(String line, int i) {
+        i = end(line, i);
+        
+        while (i < line.length() && line.charAt(i) == ' ') {
+            i++;
+        }
+        
+        return i;
+    }
+}
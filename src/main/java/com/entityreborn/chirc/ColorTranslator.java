@@ -0,0 +1,331 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+/**
+ * Translates formatting between Minecraft and IRC in a single pass over the
+ * string, using lookup tables instead of regexes.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class ColorTranslator {
+    private static final char MC = '§';
+    
+    static final char BOLD = '\u0002';
+    static final char COLOR = '\u0003';
+    static final char HEX_COLOR = '\u0004';
+    static final char MONOSPACE = '\u0011';
+    static final char RESET = '\u000F';
+    static final char REVERSE = '\u0016';
+    static final char ITALIC = '\u001D';
+    static final char STRIKETHRU = '\u001E';
+    static final char UNDERLINE = '\u001F';
+    
+    private static final int S_BOLD = 1;
+    private static final int S_ITALIC = 2;
+    private static final int S_UNDERLINE = 4;
+    private static final int S_STRIKETHRU = 8;
+    
+    // Indexed by style bit position.
+    private static final char[] STYLE_IRC = {BOLD, ITALIC, UNDERLINE, STRIKETHRU};
+    private static final char[] STYLE_MC = {'l', 'o', 'n', 'm'};
+    
+    // MC color code -> two digit IRC color.
+    private static final String[] MC_TO_IRC = new String[128];
+    // MC style code -> style bit.
+    private static final int[] MC_STYLES = new int[128];
+    // IRC color number -> MC color code.
+    private static final char[] IRC_TO_MC = {
+        'f', // White
+        '0', // Black
+        '1', // Dark Blue
+        '2', // Dark Green
+        'c', // Red
+        '4', // Dark Red
+        '5', // Dark Purple
+        '6', // Gold
+        'e', // Yellow
+        'a', // Green
+        '3', // Dark Aqua
+        'b', // Aqua
+        '9', // Blue
+        'd', // Light Purple
+        '8', // Dark Grey
+        '7'  // Grey
+    };
+    
+    static {
+        for (int i = 0; i < IRC_TO_MC.length; i++) {
+            char code = IRC_TO_MC[i];
+            String irc = (i < 10 ? "0" : "") + i;
+            
+            MC_TO_IRC[code] = irc;
+            MC_TO_IRC[Character.toUpperCase(code)] = irc;
+        }
+        
+        for (int i = 0; i < STYLE_MC.length; i++) {
+            MC_STYLES[STYLE_MC[i]] = 1 << i;
+            MC_STYLES[Character.toUpperCase(STYLE_MC[i])] = 1 << i;
+        }
+    }
+    
+    /**
+     * Convert MC colors and styles to IRC. Unknown codes are stripped.
+     */
+    public static String mcToIrc(String line) {
+        if (line.indexOf(MC) == -1) {
+            return line;
+        }
+        
+        int len = line.length();
+        StringBuilder out = new StringBuilder(len + 16);
+        int styles = 0;
+        
+        for (int i = 0; i < len; i++) {
+            char c = line.charAt(i);
+            
+            if (c != MC || i + 1 >= len) {
+                out.append(c);
+                continue;
+            }
+            
+            char code = line.charAt(++i);
+            
+            if (code >= 128) {
+                continue;
+            }
+            
+            String color = MC_TO_IRC[code];
+            
+            if (color != null) {
+                // MC colors reset any styles, IRC colors don't.
+                if (styles != 0) {
+                    out.append(RESET);
+                    styles = 0;
+                }
+                
+                out.append(COLOR).append(color);
+                
+                // Keep a following comma from being read as a background.
+                if (i + 1 < len && line.charAt(i + 1) == ',') {
+                    out.append(BOLD).append(BOLD);
+                }
+                
+                continue;
+            }
+            
+            int style = MC_STYLES[code];
+            
+            if (style != 0) {
+                if ((styles & style) == 0) {
+                    styles |= style;
+                    out.append(STYLE_IRC[Integer.numberOfTrailingZeros(style)]);
+                }
+                
+                continue;
+            }
+            
+            if (code == 'r' || code == 'R') {
+                out.append(RESET);
+                styles = 0;
+            }
+        }
+        
+        return out.toString();
+    }
+    
+    /**
+     * Convert IRC colors and styles to MC. Backgrounds, extended colors and
+     * styles MC doesn't have are stripped.
+     */
+    public static String ircToMc(String line) {
+        return translateIrc(line, true);
+    }
+    
+    /**
+     * Remove all IRC formatting.
+     */
+    public static String stripIrc(String line) {
+        return translateIrc(line, false);
+    }
+    
+    private static boolean isFormatting(char c) {
+        switch (c) {
+            case BOLD:
+            case COLOR:
+            case HEX_COLOR:
+            case MONOSPACE:
+            case RESET:
+            case REVERSE:
+            case ITALIC:
+            case STRIKETHRU:
+            case UNDERLINE:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static boolean isHex(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+    
+    private static void appendStyles(StringBuilder out, int styles) {
+        for (int i = 0; i < STYLE_MC.length; i++) {
+            if ((styles & (1 << i)) != 0) {
+                out.append(MC).append(STYLE_MC[i]);
+            }
+        }
+    }
+    
+    private static String translateIrc(String line, boolean toMc) {
+        int len = line.length();
+        int i = 0;
+        
+        while (i < len && !isFormatting(line.charAt(i))) {
+            i++;
+        }
+        
+        if (i == len) {
+            return line;
+        }
+        
+        StringBuilder out = new StringBuilder(len + 16);
+        out.append(line, 0, i);
+        
+        char color = 0;
+        int styles = 0;
+        
+        for (; i < len; i++) {
+            char c = line.charAt(i);
+            
+            switch (c) {
+                case COLOR: {
+                    int fg = -1;
+                    int j = i + 1;
+                    
+                    if (j < len && isDigit(line.charAt(j))) {
+                        fg = line.charAt(j++) - '0';
+                        
+                        if (j < len && isDigit(line.charAt(j))) {
+                            fg = fg * 10 + line.charAt(j++) - '0';
+                        }
+                        
+                        // A comma is only a background if a digit follows.
+                        if (j + 1 < len && line.charAt(j) == ',' && isDigit(line.charAt(j + 1))) {
+                            j += 2;
+                            
+                            if (j < len && isDigit(line.charAt(j))) {
+                                j++;
+                            }
+                        }
+                    }
+                    
+                    i = j - 1;
+                    
+                    if (!toMc) {
+                        break;
+                    }
+                    
+                    if (fg >= 0 && fg < IRC_TO_MC.length) {
+                        color = IRC_TO_MC[fg];
+                        out.append(MC).append(color);
+                        appendStyles(out, styles);
+                    } else if (fg == -1 || fg == 99) {
+                        color = 0;
+                        out.append(MC).append('r');
+                        appendStyles(out, styles);
+                    }
+                    
+                    break;
+                }
+                case HEX_COLOR: {
+                    int j = i + 1;
+                    
+                    while (j < len && j < i + 7 && isHex(line.charAt(j))) {
+                        j++;
+                    }
+                    
+                    if (j + 1 < len && line.charAt(j) == ',' && isHex(line.charAt(j + 1))) {
+                        int start = ++j;
+                        
+                        while (j < len && j < start + 6 && isHex(line.charAt(j))) {
+                            j++;
+                        }
+                    }
+                    
+                    i = j - 1;
+                    break;
+                }
+                case RESET:
+                    if (toMc && (color != 0 || styles != 0)) {
+                        out.append(MC).append('r');
+                    }
+                    
+                    color = 0;
+                    styles = 0;
+                    break;
+                case BOLD:
+                case ITALIC:
+                case UNDERLINE:
+                case STRIKETHRU: {
+                    int style = c == BOLD ? S_BOLD : c == ITALIC ? S_ITALIC
+                            : c == UNDERLINE ? S_UNDERLINE : S_STRIKETHRU;
+                    
+                    styles ^= style;
+                    
+                    if (!toMc) {
+                        break;
+                    }
+                    
+                    if ((styles & style) != 0) {
+                        out.append(MC).append(STYLE_MC[Integer.numberOfTrailingZeros(style)]);
+                    } else {
+                        // MC can't turn a single style off, so start over.
+                        out.append(MC).append('r');
+                        
+                        if (color != 0) {
+                            out.append(MC).append(color);
+                        }
+                        
+                        appendStyles(out, styles);
+                    }
+                    
+                    break;
+                }
+                case REVERSE:
+                case MONOSPACE:
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+        
+        return out.toString();
+    }
+}
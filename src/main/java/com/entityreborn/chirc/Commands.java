@@ -0,0 +1,318 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.entityreborn.socbot.Channel;
+import com.entityreborn.socbot.SocBot;
+import com.entityreborn.socbot.User;
+import com.laytonsmith.abstraction.StaticLayer;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CClosure;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.exceptions.FunctionReturnException;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Routes messages like "!trigger some args" straight to the closure
+ * registered for the trigger, so scripts only run for actual commands.
+ * Triggers are kept in a trie for each prefix, rebuilt whenever a command
+ * is added or removed, and looked up without locking.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Commands {
+    public static class Command {
+        private final String prefix;
+        private final String trigger;
+        private final CClosure closure;
+        // Null to allow anyone.
+        private final Set<String> nicks;
+        private final Set<String> hostmasks;
+        private final List<Glob> masks;
+        private final boolean consume;
+        
+        /**
+         * Nicks and hostmasks may be null to allow anyone. Hostmasks with
+         * wildcards are matched as masks, the rest are looked up directly.
+         */
+        public Command(String prefix, String trigger, CClosure closure,
+                Collection<String> nicks, Collection<String> hostmasks, boolean consume) {
+            this.prefix = prefix;
+            this.trigger = trigger.toLowerCase(Locale.ENGLISH);
+            this.closure = closure;
+            this.consume = consume;
+            
+            if (nicks == null) {
+                this.nicks = null;
+            } else {
+                this.nicks = new HashSet<String>();
+                
+                for (String nick : nicks) {
+                    this.nicks.add(MetaStore.fold(nick));
+                }
+            }
+            
+            if (hostmasks == null) {
+                this.hostmasks = null;
+                this.masks = null;
+            } else {
+                this.hostmasks = new HashSet<String>();
+                this.masks = new ArrayList<Glob>();
+                
+                for (String mask : hostmasks) {
+                    if (mask.indexOf('*') != -1 || mask.indexOf('?') != -1) {
+                        masks.add(new Glob(mask));
+                    } else {
+                        this.hostmasks.add(mask.toLowerCase(Locale.ENGLISH));
+                    }
+                }
+            }
+        }
+        
+        public boolean allowed(String nick, String hostmask) {
+            if (nicks != null && !nicks.contains(MetaStore.fold(nick))) {
+                return false;
+            }
+            
+            if (hostmasks == null || hostmasks.contains(hostmask.toLowerCase(Locale.ENGLISH))) {
+                return true;
+            }
+            
+            for (Glob mask : masks) {
+                if (mask.matches(hostmask)) {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+    }
+    
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<Character, Node>(4);
+        private Command command;
+    }
+    
+    // By prefix, then trigger; only touched while holding this.
+    private final Map<String, Map<String, Command>> commands = new LinkedHashMap<String, Map<String, Command>>();
+    private volatile Map<String, Node> tries = new LinkedHashMap<String, Node>();
+    
+    /**
+     * Add a command, replacing any with the same prefix and trigger.
+     */
+    public synchronized void register(Command command) {
+        Map<String, Command> triggers = commands.get(command.prefix);
+        
+        if (triggers == null) {
+            triggers = new HashMap<String, Command>();
+            commands.put(command.prefix, triggers);
+        }
+        
+        triggers.put(command.trigger, command);
+        rebuild();
+    }
+    
+    public synchronized boolean unregister(String prefix, String trigger) {
+        Map<String, Command> triggers = commands.get(prefix);
+        
+        if (triggers == null || triggers.remove(trigger.toLowerCase(Locale.ENGLISH)) == null) {
+            return false;
+        }
+        
+        if (triggers.isEmpty()) {
+            commands.remove(prefix);
+        }
+        
+        rebuild();
+        
+        return true;
+    }
+    
+    public synchronized void clear() {
+        commands.clear();
+        rebuild();
+    }
+    
+    private void rebuild() {
+        Map<String, Node> built = new LinkedHashMap<String, Node>();
+        
+        for (Map.Entry<String, Map<String, Command>> entry : commands.entrySet()) {
+            Node root = new Node();
+            
+            for (Command command : entry.getValue().values()) {
+                Node node = root;
+                
+                for (int i = 0; i < command.trigger.length(); i++) {
+                    Character c = command.trigger.charAt(i);
+                    Node next = node.children.get(c);
+                    
+                    if (next == null) {
+                        next = new Node();
+                        node.children.put(c, next);
+                    }
+                    
+                    node = next;
+                }
+                
+                node.command = command;
+            }
+            
+            built.put(entry.getKey(), root);
+        }
+        
+        tries = built;
+    }
+    
+    /**
+     * The command a message invokes, or null if it isn't one. The index the
+     * arguments start at is put in end[0].
+     */
+    public Command find(String message, int[] end) {
+        Map<String, Node> current = tries;
+        
+        if (current.isEmpty()) {
+            return null;
+        }
+        
+        for (Map.Entry<String, Node> entry : current.entrySet()) {
+            String prefix = entry.getKey();
+            
+            if (!message.startsWith(prefix)) {
+                continue;
+            }
+            
+            Node node = entry.getValue();
+            int i = prefix.length();
+            
+            while (node != null && i < message.length() && message.charAt(i) != ' ') {
+                node = node.children.get(Character.toLowerCase(message.charAt(i)));
+                i++;
+            }
+            
+            if (node != null && node.command != null && i > prefix.length()) {
+                end[0] = i;
+                return node.command;
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Run the command a message invokes, if the sender is allowed to. The
+     * closure runs on the main thread, and anything it returns is sent back
+     * to where the message came from. Returns true if the message shouldn't
+     * go on to fire irc_msg.
+     */
+    public boolean dispatch(final SocBot bot, final User sender,
+            com.entityreborn.socbot.Target target, String message) {
+        int[] end = new int[1];
+        final Command command = find(message, end);
+        
+        if (command == null) {
+            return false;
+        }
+        
+        final String nick = sender.getName();
+        final String hostmask = Who.hostmask(bot, sender);
+        
+        if (!command.allowed(nick, hostmask)) {
+            return false;
+        }
+        
+        final String to = target.getName();
+        final String reply = target instanceof Channel ? to : nick;
+        final String trigger = message.substring(command.prefix.length(), end[0]);
+        final String args = message.substring(end[0]).trim();
+        
+        StaticLayer.GetConvertor().runOnMainThreadLater(Target.UNKNOWN, new Runnable() {
+            public void run() {
+                invoke(bot, command, nick, hostmask, to, reply, trigger, args);
+            }
+        });
+        
+        return command.consume;
+    }
+    
+    private static void invoke(SocBot bot, Command command, String nick, String hostmask,
+            String to, String reply, String trigger, String args) {
+        Target t = Target.UNKNOWN;
+        CArray data = CArray.GetAssociativeArray(t);
+        CArray argv = new CArray(t);
+        
+        for (String arg : args.split(" ")) {
+            if (!arg.isEmpty()) {
+                argv.push(new CString(arg, t), t);
+            }
+        }
+        
+        data.set("id", bot.getID());
+        data.set("who", nick);
+        data.set("hostmask", hostmask);
+        data.set("target", to);
+        data.set("prefix", command.prefix);
+        data.set("trigger", trigger);
+        data.set("args", args);
+        data.set("argv", argv, t);
+        
+        Mixed retn = CNull.NULL;
+        
+        try {
+            command.closure.execute(data);
+        } catch (FunctionReturnException e) {
+            retn = e.getReturn();
+        } catch (ConfigRuntimeException e) {
+            Utils.log("CHIRC", "Command " + command.prefix + command.trigger + " failed: "
+                    + e.getMessage(), t);
+            return;
+        }
+        
+        if (retn == null || retn instanceof CNull || retn.val().isEmpty() || !bot.isConnected()) {
+            return;
+        }
+        
+        List<String> lines = new ArrayList<String>();
+        Functions.addMessage(lines, MessageSplitter.sourceLength(bot), reply, retn.val(), false);
+        
+        try {
+            Functions.enqueueAll(bot, lines, t);
+        } catch (ConfigRuntimeException e) {
+            Utils.log("CHIRC", "Couldn't reply to " + command.prefix + command.trigger + ": "
+                    + e.getMessage(), t);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.entityreborn.chirc.Events.ConnectionException;
+import com.entityreborn.socbot.SocBot;
+import com.laytonsmith.core.constructs.Target;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs connection attempts for all bots on a small, named pool of threads.
+ * Only one attempt per bot id can be pending at a time; overlapping attempts
+ * are dropped.
+ * 
+ * Set the system property chirc.connect.virtual to true to use virtual
+ * threads instead, when running on Java 21 or newer.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Connector {
+    public static final int THREADS = 4;
+    public static final int BACKLOG = 64;
+    public static final long SHUTDOWN_WAIT = 5000;
+    
+    private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private ExecutorService executor;
+    
+    /**
+     * A single attempt at connecting a bot. Failures fire
+     * irc_connection_exception and let the Reconnector schedule a retry.
+     */
+    public static Runnable attempt(final SocBot bot, final String host, 
+            final int port, final String password) {
+        return new Runnable() {
+            public void run() {
+                Stats stats = Tracking.getStats(bot);
+                
+                if (stats != null) {
+                    stats.connectAttempt();
+                }
+                
+                try {
+                    bot.connect(host, port, password);
+                } catch (IOException e) {
+                    ConnectionException event = new ConnectionException(e, bot);
+                    Tracking.getEvents().fireEvent("irc_connection_exception", event);
+                    Tracking.getReconnector().failed(bot);
+                }
+            }
+        };
+    }
+    
+    /**
+     * Run a connection attempt for a bot, either on the pool or on the
+     * calling thread. Returns false if an attempt for that bot is already
+     * pending.
+     * 
+     * @throws RejectedExecutionException if the pool's backlog is full.
+     */
+    public boolean connect(SocBot bot, final Runnable attempt, boolean async) {
+        final String id = bot.getID();
+        
+        if (!pending.add(id)) {
+            Utils.verbose("CHIRC", "Connection attempt for " + id 
+                    + " already pending, skipping.", Target.UNKNOWN);
+            return false;
+        }
+        
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    attempt.run();
+                } finally {
+                    pending.remove(id);
+                }
+            }
+        };
+        
+        if (!async) {
+            task.run();
+            return true;
+        }
+        
+        try {
+            getExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            pending.remove(id);
+            throw e;
+        }
+        
+        return true;
+    }
+    
+    public boolean isPending(SocBot bot) {
+        return pending.contains(bot.getID());
+    }
+    
+    /**
+     * Let running attempts finish for a short while, then give up on them.
+     */
+    public void shutdown() {
+        ExecutorService exec;
+        
+        synchronized (this) {
+            exec = executor;
+            executor = null;
+        }
+        
+        if (exec == null) {
+            return;
+        }
+        
+        exec.shutdown();
+        
+        try {
+            if (!exec.awaitTermination(SHUTDOWN_WAIT, TimeUnit.MILLISECONDS)) {
+                exec.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            exec.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        
+        pending.clear();
+    }
+    
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            if (Boolean.getBoolean("chirc.connect.virtual")) {
+                executor = createVirtual();
+            }
+            
+            if (executor == null) {
+                executor = createPool();
+            }
+        }
+        
+        return executor;
+    }
+    
+    private static ExecutorService createPool() {
+        final AtomicInteger count = new AtomicInteger();
+        
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(BACKLOG),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "CHIRC-Connect-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        
+                        return thread;
+                    }
+                });
+        
+        pool.allowCoreThreadTimeOut(true);
+        
+        return pool;
+    }
+    
+    /**
+     * Thread.ofVirtual() only exists on Java 21+, so look it up reflectively.
+     * Returns null if it isn't available.
+     */
+    private static ExecutorService createVirtual() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> type = Class.forName("java.lang.Thread$Builder");
+            
+            builder = type.getMethod("name", String.class, long.class)
+                    .invoke(builder, "CHIRC-Connect-", 1L);
+            ThreadFactory factory = (ThreadFactory) type.getMethod("factory").invoke(builder);
+            
+            Method create = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            
+            return (ExecutorService) create.invoke(null, factory);
+        } catch (Exception e) {
+            Utils.log("CHIRC", "Virtual threads aren't available, using a thread pool.", Target.UNKNOWN);
+            
+            return null;
+        }
+    }
+}
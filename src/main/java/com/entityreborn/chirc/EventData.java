@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.entityreborn.socbot.SocBot;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Event data for an irc_* event. The set of keys is fixed up front, but each
+ * value is only built the first time it's asked for. Immutable values are kept
+ * for any other binds that receive the same event; arrays are built again for
+ * each bind, so one bind's changes never show up in the next. Each bind gets
+ * its own map from {@link #forBind()}, which also takes extra keys. The id key
+ * is filled in from a per-bot constant.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public abstract class EventData extends AbstractMap<String, Mixed> {
+    private static final Map<String, CString> ids = new ConcurrentHashMap<String, CString>();
+    
+    private final SocBot bot;
+    private final String[] keys;
+    private final Mixed[] values;
+    private final boolean[] gone;
+    private final EventData shared;
+    private Map<String, Mixed> extra;
+    private int removed;
+
+    public EventData(SocBot bot, String... keys) {
+        this.bot = bot;
+        this.keys = new String[keys.length + 1];
+        this.keys[0] = "id";
+        System.arraycopy(keys, 0, this.keys, 1, keys.length);
+        this.values = new Mixed[this.keys.length];
+        this.gone = null;
+        this.shared = null;
+    }
+    
+    private EventData(EventData shared) {
+        this.bot = shared.bot;
+        this.keys = shared.keys;
+        this.values = new Mixed[keys.length];
+        this.gone = new boolean[keys.length];
+        this.shared = shared;
+    }
+    
+    /**
+     * The id of a bot, as a constant shared by every event it fires.
+     */
+    public static CString botId(SocBot bot) {
+        CString id = ids.get(bot.getID());
+        
+        if (id == null) {
+            id = new CString(bot.getID(), Target.UNKNOWN);
+            ids.put(bot.getID(), id);
+        }
+        
+        return id;
+    }
+    
+    /**
+     * A map of its own for a single bind, backed by this one.
+     */
+    public EventData forBind() {
+        return new EventData(shared == null ? this : shared) {
+            @Override
+            protected Mixed compute(String key) {
+                throw new IllegalStateException();
+            }
+        };
+    }
+    
+    /**
+     * Build the value for a key. Only called once per key, per bind for arrays.
+     */
+    protected abstract Mixed compute(String key);
+    
+    private int indexOf(Object key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        
+        return -1;
+    }
+    
+    private Mixed sharedAt(int index) {
+        Mixed value = values[index];
+        
+        if (value == null) {
+            value = index == 0 ? botId(bot) : compute(keys[index]);
+            
+            if (!(value instanceof CArray)) {
+                values[index] = value;
+            }
+        }
+        
+        return value;
+    }
+    
+    private Mixed valueAt(int index) {
+        if (values[index] == null) {
+            values[index] = shared == null ? sharedAt(index) : shared.sharedAt(index);
+        }
+        
+        return values[index];
+    }
+    
+    private boolean isRemoved(int index) {
+        return gone != null && gone[index];
+    }
+
+    @Override
+    public Mixed get(Object key) {
+        int index = indexOf(key);
+        
+        if (index == -1) {
+            return extra == null ? null : extra.get(key);
+        }
+        
+        return isRemoved(index) ? null : valueAt(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int index = indexOf(key);
+        
+        if (index == -1) {
+            return extra != null && extra.containsKey(key);
+        }
+        
+        return !isRemoved(index);
+    }
+
+    @Override
+    public Mixed put(String key, Mixed value) {
+        int index = indexOf(key);
+        
+        if (index == -1) {
+            if (extra == null) {
+                extra = new LinkedHashMap<String, Mixed>();
+            }
+            
+            return extra.put(key, value);
+        }
+        
+        Mixed old = get(key);
+        
+        if (isRemoved(index)) {
+            gone[index] = false;
+            removed--;
+        }
+        
+        values[index] = value;
+        
+        return old;
+    }
+
+    @Override
+    public Mixed remove(Object key) {
+        int index = indexOf(key);
+        
+        if (index == -1) {
+            return extra == null ? null : extra.remove(key);
+        }
+        
+        Mixed old = get(key);
+        removeAt(index);
+        
+        return old;
+    }
+    
+    private void removeAt(int index) {
+        if (gone == null) {
+            throw new UnsupportedOperationException("Use forBind() to change event data");
+        }
+        
+        if (!isRemoved(index)) {
+            gone[index] = true;
+            values[index] = null;
+            removed++;
+        }
+    }
+
+    @Override
+    public int size() {
+        return keys.length - removed + (extra == null ? 0 : extra.size());
+    }
+
+    @Override
+    public Set<Entry<String, Mixed>> entrySet() {
+        return new AbstractSet<Entry<String, Mixed>>() {
+            @Override
+            public Iterator<Entry<String, Mixed>> iterator() {
+                return new Iterator<Entry<String, Mixed>>() {
+                    private int index = next(0);
+                    private int last = -1;
+                    private Iterator<Entry<String, Mixed>> rest;
+                    
+                    private int next(int from) {
+                        while (from < keys.length && isRemoved(from)) {
+                            from++;
+                        }
+                        
+                        return from;
+                    }
+                    
+                    private boolean hasRest() {
+                        if (rest == null && extra != null) {
+                            rest = extra.entrySet().iterator();
+                        }
+                        
+                        return rest != null && rest.hasNext();
+                    }
+                    
+                    public boolean hasNext() {
+                        return index < keys.length || hasRest();
+                    }
+
+                    public Entry<String, Mixed> next() {
+                        if (index >= keys.length) {
+                            if (!hasRest()) {
+                                throw new NoSuchElementException();
+                            }
+                            
+                            last = -1;
+                            
+                            return rest.next();
+                        }
+                        
+                        Entry<String, Mixed> entry = new SimpleImmutableEntry<String, Mixed>(
+                                keys[index], valueAt(index));
+                        last = index;
+                        index = next(index + 1);
+                        
+                        return entry;
+                    }
+
+                    public void remove() {
+                        if (last != -1) {
+                            removeAt(last);
+                            last = -1;
+                        } else if (rest != null) {
+                            rest.remove();
+                        } else {
+                            throw new IllegalStateException();
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return EventData.this.size();
+            }
+        };
+    }
+}
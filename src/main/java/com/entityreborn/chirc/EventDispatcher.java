@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.laytonsmith.abstraction.StaticLayer;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.events.BindableEvent;
+import com.laytonsmith.core.events.Driver;
+import com.laytonsmith.core.events.EventUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands events from the bots' socket threads over to the server's main
+ * thread. Socket threads only ever enqueue; a single dispatcher thread drains
+ * the buffer in batches, one batch per main thread call, so events from a
+ * given bot are always fired in the order they were received. Once CAPACITY
+ * events are waiting, further events are dropped and counted, except for
+ * connection lifecycle events such as irc_connected and irc_disconnected,
+ * which have a small reserve of their own.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class EventDispatcher {
+    public static final int CAPACITY = 4096;
+    /** Room past CAPACITY that only lifecycle events may use. */
+    public static final int RESERVE = 64;
+    public static final int BATCH = 256;
+    
+    private static final Set<String> LIFECYCLE = new HashSet<String>(Arrays.asList(
+            "irc_connected", "irc_welcomed", "irc_disconnected",
+            "irc_connection_exception", "irc_reconnecting", "irc_error"));
+    
+    private final BlockingQueue<Pending> buffer = new ArrayBlockingQueue<Pending>(CAPACITY + RESERVE);
+    private final Object lock = new Object();
+    private volatile Thread worker;
+    private boolean stopped = false;
+    private long dropped = 0;
+    
+    protected static class Pending {
+        private final String name;
+        private final BindableEvent event;
+        private final long queued = System.nanoTime();
+
+        public Pending(String name, BindableEvent event) {
+            this.name = name;
+            this.event = event;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public BindableEvent getEvent() {
+            return event;
+        }
+    }
+    
+    /**
+     * Queue an event to be fired on the main thread. Never blocks; if the
+     * buffer is full the event is dropped and counted.
+     */
+    public boolean enqueue(String name, BindableEvent event) {
+        if (worker == null && !start()) {
+            return false;
+        }
+        
+        if ((buffer.size() < CAPACITY || LIFECYCLE.contains(name))
+                && buffer.offer(new Pending(name, event))) {
+            return true;
+        }
+        
+        synchronized (lock) {
+            dropped++;
+            
+            // Don't spam the log when the buffer stays full.
+            if (dropped == 1 || dropped % 1000 == 0) {
+                Utils.log("CHIRC", "Event buffer full, dropped " + dropped 
+                        + " event(s) so far.", Target.UNKNOWN);
+            }
+        }
+        
+        return false;
+    }
+    
+    public int size() {
+        return buffer.size();
+    }
+    
+    public boolean isStopped() {
+        synchronized (lock) {
+            return stopped;
+        }
+    }
+    
+    public long getDropped() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+    
+    /**
+     * Stop for good. Anything queued afterwards is ignored.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            stopped = true;
+            
+            if (worker != null) {
+                worker.interrupt();
+                worker = null;
+            }
+            
+            buffer.clear();
+        }
+    }
+    
+    /**
+     * Start the dispatcher thread if it isn't running. Returns false once
+     * shut down.
+     */
+    private boolean start() {
+        synchronized (lock) {
+            if (stopped) {
+                return false;
+            }
+            
+            if (worker != null) {
+                return true;
+            }
+            
+            worker = new Thread("CHIRC-Dispatcher") {
+                @Override
+                public void run() {
+                    drain(this);
+                }
+            };
+            
+            worker.setDaemon(true);
+            worker.start();
+        }
+        
+        return true;
+    }
+    
+    private boolean isCurrent(Thread thread) {
+        synchronized (lock) {
+            return worker == thread;
+        }
+    }
+    
+    private void drain(Thread self) {
+        final List<Pending> batch = new ArrayList<Pending>(BATCH);
+        
+        while (isCurrent(self)) {
+            try {
+                batch.add(buffer.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            
+            buffer.drainTo(batch, BATCH - 1);
+            
+            try {
+                dispatch(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception ex) {
+                Logger.getLogger(EventDispatcher.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            
+            batch.clear();
+        }
+    }
+    
+    /**
+     * Fire a batch of events on the main thread, waiting until they've all
+     * been handled.
+     */
+    protected void dispatch(final List<Pending> batch) throws Exception {
+        StaticLayer.GetConvertor().runOnMainThreadAndWait(new Callable<Object>() {
+            public Object call() {
+                for (Pending pending : batch) {
+                    fire(pending);
+                }
+
+                return null;
+            }
+        });
+    }
+    
+    private void fire(Pending pending) {
+        if (pending.event instanceof Events.CachedEvent) {
+            Stats stats = Tracking.getStats(((Events.CachedEvent) pending.event).getBot());
+            
+            if (stats != null) {
+                stats.dispatched(System.nanoTime() - pending.queued);
+            }
+        }
+        
+        try {
+            EventUtils.TriggerListener(Driver.EXTENSION, pending.name, pending.event);
+        } catch (RuntimeException ex) {
+            Logger.getLogger(EventDispatcher.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
@@ -23,6 +23,7 @@
  */
 package com.entityreborn.chirc;
 
+import com.entityreborn.socbot.Channel;
 import com.entityreborn.socbot.Numerics;
 import com.entityreborn.socbot.Packet;
 import com.entityreborn.socbot.SocBot;
@@ -52,78 +53,410 @@ import com.laytonsmith.core.constructs.Construct;
 import com.laytonsmith.core.constructs.Target;
 import com.laytonsmith.core.events.AbstractEvent;
 import com.laytonsmith.core.events.BindableEvent;
+import com.laytonsmith.core.events.BoundEvent;
 import com.laytonsmith.core.events.Driver;
-import com.laytonsmith.core.events.EventUtils;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
 import com.laytonsmith.core.exceptions.EventException;
 import com.laytonsmith.core.exceptions.PrefilterNonMatchException;
 import com.laytonsmith.core.natives.interfaces.Mixed;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  *
  * @author Jason Unger <entityreborn@gmail.com>
  */
 public class Events implements Listener {
+    // Every event we fire, indexed by bit in the bound mask.
+    private static final String[] NAMES = {
+        "irc_disconnected", "irc_error", "irc_nick_changed", "irc_nick_in_use",
+        "irc_numeric", "irc_recv_raw", "irc_connected", "irc_msg", "irc_action",
+        "irc_welcomed", "irc_joined", "irc_quit", "irc_parted",
+        "irc_connection_exception", "irc_reconnecting", "irc_netsplit",
+        "irc_netjoin", "irc_batch"};
+    
+    private static final int DISCONNECTED = eventId("irc_disconnected");
+    private static final int ERROR = eventId("irc_error");
+    private static final int NICK_CHANGED = eventId("irc_nick_changed");
+    private static final int NICK_IN_USE = eventId("irc_nick_in_use");
+    private static final int NUMERIC = eventId("irc_numeric");
+    private static final int RECV_RAW = eventId("irc_recv_raw");
+    private static final int CONNECTED = eventId("irc_connected");
+    private static final int MSG = eventId("irc_msg");
+    private static final int ACTION = eventId("irc_action");
+    private static final int WELCOMED = eventId("irc_welcomed");
+    private static final int JOINED = eventId("irc_joined");
+    private static final int QUIT = eventId("irc_quit");
+    private static final int PARTED = eventId("irc_parted");
+    private static final int NETSPLIT = eventId("irc_netsplit");
+    private static final int NETJOIN = eventId("irc_netjoin");
+    private static final int BATCH = eventId("irc_batch");
+    
+    private static final int[] bindCounts = new int[NAMES.length];
+    private static volatile long bound = 0;
+    
+    private volatile EventDispatcher dispatcher;
+    
+    static int eventId(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        
+        return -1;
+    }
+    
+    static int eventCount() {
+        return NAMES.length;
+    }
+    
+    static String eventName(int id) {
+        return NAMES[id];
+    }
+    
+    /**
+     * Track a bind being added (1) or removed (-1) for an event.
+     */
+    static void bindChanged(String name, int delta) {
+        int id = eventId(name);
+        
+        if (id == -1) {
+            return;
+        }
+        
+        synchronized (bindCounts) {
+            bindCounts[id] = Math.max(0, bindCounts[id] + delta);
+            
+            if (bindCounts[id] > 0) {
+                bound |= 1L << id;
+            } else {
+                bound &= ~(1L << id);
+            }
+        }
+    }
+    
+    private static boolean hasBinds(int id) {
+        return (bound & (1L << id)) != 0;
+    }
+    
+    public static boolean hasBinds(String name) {
+        int id = eventId(name);
+        
+        return id != -1 && hasBinds(id);
+    }
+    
+    public Events() {
+        this(new EventDispatcher());
+    }
+    
+    Events(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+    
     public void fireEvent(final String name, final BindableEvent evt) {
-        EventUtils.TriggerListener(Driver.EXTENSION, name, evt);
+        int id = eventId(name);
+        
+        if (id == -1 || !hasBinds(id)) {
+            return;
+        }
+        
+        if (evt instanceof CachedEvent) {
+            // Lines in a batch are only seen through irc_batch.
+            if (id != BATCH && isBatched(((CachedEvent) evt).getBot())) {
+                return;
+            }
+            
+            Stats stats = Tracking.getStats(((CachedEvent) evt).getBot());
+            
+            if (stats != null) {
+                stats.fired(id);
+            }
+        }
+        
+        dispatcher.enqueue(name, evt);
+    }
+    
+    public EventDispatcher getDispatcher() {
+        return dispatcher;
+    }
+    
+    /**
+     * Swap in a new dispatcher when the extension starts again, since a
+     * shut down one stays shut down.
+     */
+    void restart() {
+        dispatcher = new EventDispatcher();
+    }
+    
+    /**
+     * Whether the line the bot is handling on this thread should only be
+     * seen through irc_batch: any batched line while irc_batch is bound,
+     * and chat history always.
+     */
+    private static boolean isBatched(SocBot bot) {
+        Batches batches = Tracking.getBatches(bot);
+        
+        if (batches == null || !batches.isBatched()) {
+            return false;
+        }
+        
+        return hasBinds(BATCH) || batches.isHistory();
+    }
+    
+    /**
+     * Whether the line the bot is handling on this thread belongs to any
+     * batch, bound or not.
+     */
+    private static boolean inBatch(SocBot bot) {
+        Batches batches = Tracking.getBatches(bot);
+        
+        return batches != null && batches.isBatched();
     }
 
     @EventHandler
     public void handleDisconnect(DisconnectedEvent e) {
+        ChannelSnapshot.settle(e.getBot());
+        
+        SendQueue queue = Tracking.getQueue(e.getBot());
+        
+        if (queue != null) {
+            queue.clear();
+        }
+        
+        Tracking.getNetsplits().clear(e.getBot());
+        
+        Targets targets = Tracking.getTargets(e.getBot());
+        
+        if (targets != null) {
+            targets.clear();
+        }
+        
+        Map<String, ChannelSnapshot> snapshots = Tracking.getSnapshots(e.getBot());
+        
+        if (snapshots != null) {
+            snapshots.clear();
+        }
+        
+        ServerSupport support = Tracking.getSupport(e.getBot());
+        
+        if (support != null) {
+            support.clear();
+        }
+        
+        Capabilities caps = Tracking.getCapabilities(e.getBot());
+        
+        if (caps != null) {
+            caps.reset();
+        }
+        
+        Batches batches = Tracking.getBatches(e.getBot());
+        
+        if (batches != null) {
+            batches.clear();
+        }
+        
+        Who who = Tracking.getWho(e.getBot());
+        
+        if (who != null) {
+            who.clear();
+        }
+        
+        if (!e.wasClean()) {
+            Tracking.getReconnector().failed(e.getBot());
+        }
+        
+        if (!hasBinds(DISCONNECTED)) {
+            return;
+        }
+        
         final Disconnected event = new Disconnected(e);
         fireEvent("irc_disconnected", event);
     }
 
     @EventHandler
     public void handleError(ErrorEvent e) {
+        if (!hasBinds(ERROR)) {
+            return;
+        }
+        
         final Error event = new Error(e);
         fireEvent("irc_error", event);
     }
 
     @EventHandler
     public void handleNick(NickEvent e) {
+        // SocCore has applied the line by the time its event fires.
+        ChannelSnapshot.settle(e.getBot());
+        
+        if (!hasBinds(NICK_CHANGED)) {
+            return;
+        }
+        
         final Nick event = new Nick(e);
         fireEvent("irc_nick_changed", event);
     }
     
     @EventHandler
     public void handleNickInUse(NickInUseEvent e) {
+        if (!hasBinds(NICK_IN_USE)) {
+            return;
+        }
+        
         final NickInUse event = new NickInUse(e);
         fireEvent("irc_nick_in_use", event);
     }
     
     @EventHandler
     public void handleNumeric(NumericEvent e) {
+        ChannelSnapshot.settle(e.getBot());
+        
+        if (!hasBinds(NUMERIC)) {
+            return;
+        }
+        
+        Who who = Tracking.getWho(e.getBot());
+        
+        // Replies to the WHO sent on join; there can be hundreds of them.
+        if (who != null && who.isHandled()) {
+            return;
+        }
+        
         final Numeric event = new Numeric(e);
         fireEvent("irc_numeric", event);
     }
 
     @EventHandler
     public void handlePacketRecv(PacketReceivedEvent e) {
+        String line = e.getPacket().getOriginalLine();
+        Stats stats = Tracking.getStats(e.getBot());
+        
+        if (stats != null && line != null) {
+            stats.lineIn(line);
+        }
+        
+        ChannelSnapshot.changed(e.getBot(), line);
+        
+        ServerSupport support = Tracking.getSupport(e.getBot());
+        
+        if (support != null) {
+            support.changed(line);
+        }
+        
+        Capabilities caps = Tracking.getCapabilities(e.getBot());
+        
+        if (caps != null) {
+            caps.changed(e.getBot(), line);
+        }
+        
+        Who who = Tracking.getWho(e.getBot());
+        
+        if (who != null) {
+            who.changed(e.getBot(), line);
+        }
+        
+        Batches batches = Tracking.getBatches(e.getBot());
+        
+        if (batches != null) {
+            Batches.Batch done = batches.changed(line, hasBinds(BATCH));
+            
+            if (done != null && hasBinds(BATCH)) {
+                fireEvent("irc_batch", new BatchLines(e.getBot(), done));
+            }
+        }
+        
+        if (!hasBinds(RECV_RAW)) {
+            return;
+        }
+        
         final RecvLine event = new RecvLine(e);
         fireEvent("irc_recv_raw", event);
     }
 
     @EventHandler
     public void handleConnect(ConnectedEvent e) {
+        Capabilities caps = Tracking.getCapabilities(e.getBot());
+        
+        if (caps != null) {
+            caps.start(e.getBot());
+        }
+        
+        if (!hasBinds(CONNECTED)) {
+            return;
+        }
+        
         final Connected event = new Connected(e);
         fireEvent("irc_connected", event);
     }
 
+    /**
+     * Hand a channel message to its relay, if it has one. Returns false if
+     * the relay handled it and scripts shouldn't see it.
+     */
+    private static boolean relay(SocBot bot, com.entityreborn.socbot.Target target,
+            String nick, String message, boolean action) {
+        if (!(target instanceof Channel)) {
+            return true;
+        }
+        
+        Map<String, ChannelRelay> relays = Tracking.getChannelRelays(bot);
+        
+        if (relays == null || relays.isEmpty()) {
+            return true;
+        }
+        
+        ChannelRelay relay = relays.get(MetaStore.fold(target.getName()));
+        
+        return relay == null || relay.relay(nick, message, action);
+    }
+    
     @EventHandler
     public void handlePrivMsg(PrivmsgEvent e) {
+        // History and the like; commands and relays only act on live lines.
+        if (!inBatch(e.getBot())) {
+            Commands commands = Tracking.getCommands(e.getBot());
+            
+            if (commands != null && commands.dispatch(e.getBot(), e.getSender(), 
+                    e.getTarget(), e.getMessage())) {
+                return;
+            }
+            
+            if (!relay(e.getBot(), e.getTarget(), e.getSender().getName(), e.getMessage(), false)) {
+                return;
+            }
+        }
+        
+        if (!hasBinds(MSG)) {
+            return;
+        }
+        
         final PrivMsg event = new PrivMsg(e);
         fireEvent("irc_msg", event);
     }
 
     @EventHandler
     public void handleCTCP(CTCPEvent e) {
-        if ("ACTION".equalsIgnoreCase(e.getType())) {
+        if (!"ACTION".equalsIgnoreCase(e.getType())) {
+            return;
+        }
+        
+        if (!inBatch(e.getBot())
+                && !relay(e.getBot(), e.getTarget(), e.getSender().getName(), e.getMessage(), true)) {
+            return;
+        }
+        
+        if (hasBinds(ACTION)) {
             final Action event = new Action(e);
             fireEvent("irc_action", event);
         }
@@ -131,29 +464,126 @@ public class Events implements Listener {
 
     @EventHandler
     public void handleWelcome(WelcomeEvent e) {
+        Tracking.getReconnector().succeeded(e.getBot());
+        
+        if (!hasBinds(WELCOMED)) {
+            return;
+        }
+        
         final Welcome event = new Welcome(e);
         fireEvent("irc_welcomed", event);
     }
 
     @EventHandler
     public void handleJoined(JoinEvent e) {
+        ChannelSnapshot.settle(e.getBot());
+        
+        if (e.getUser().getName().equalsIgnoreCase(e.getBot().getNickname())) {
+            Who who = Tracking.getWho(e.getBot());
+            
+            if (who != null) {
+                who.request(e.getBot(), e.getChannel().getName());
+            }
+        }
+        
+        if (Tracking.getNetsplits().join(e.getBot(), e.getUser().getName(), 
+                e.getChannel().getName(), hasBinds(NETJOIN))) {
+            return;
+        }
+        
+        if (!hasBinds(JOINED)) {
+            return;
+        }
+        
         final Join event = new Join(e);
         fireEvent("irc_joined", event);
     }
 
     @EventHandler
     public void handleQuit(QuitEvent e) {
+        ChannelSnapshot.settle(e.getBot());
+        
+        if (Tracking.getNetsplits().quit(e.getBot(), e.getUser().getName(), 
+                e.getQuitMessage(), hasBinds(NETSPLIT), hasBinds(NETJOIN))) {
+            return;
+        }
+        
+        if (!hasBinds(QUIT)) {
+            return;
+        }
+        
         final Quit event = new Quit(e);
         fireEvent("irc_quit", event);
     }
 
     @EventHandler
     public void handleParted(PartEvent e) {
+        ChannelSnapshot.settle(e.getBot());
+        
+        if (!hasBinds(PARTED)) {
+            return;
+        }
+        
         final Part event = new Part(e);
         fireEvent("irc_parted", event);
     }
 
-    private static class Error implements BindableEvent {
+    /**
+     * An event wrapper that keeps its event data around once built, so
+     * that every bind receiving the event shares the same values. Only
+     * touched from the main thread.
+     */
+    protected abstract static class CachedEvent implements BindableEvent {
+        private EventData data;
+
+        public abstract SocBot getBot();
+
+        public boolean hasData() {
+            return data != null;
+        }
+
+        /**
+         * The event data, as a map of its own for the bind asking.
+         */
+        public EventData getData() {
+            return data == null ? null : data.forBind();
+        }
+
+        public void setData(EventData data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * An event for a single line, which may carry IRCv3 message tags.
+     */
+    protected abstract static class LineEvent extends CachedEvent {
+        private final String line;
+        private final long received;
+
+        protected LineEvent(SocBot bot, Packet packet) {
+            line = packet == null ? null : packet.getOriginalLine();
+
+            // Already read off the clock when the line came in.
+            Stats stats = Tracking.getStats(bot);
+            received = stats == null ? 0 : stats.getLastLine();
+        }
+
+        public Map<String, String> getTags() {
+            return MessageTags.parse(line);
+        }
+
+        /**
+         * When the line was sent, from server-time, or when it arrived.
+         */
+        public long getTime() {
+            long time = MessageTags.serverTime(getTags());
+
+            return time == -1 ? received : time;
+        }
+    }
+
+    protected static class Error extends CachedEvent {
         private final ErrorEvent event;
 
         public Object _GetObject() {
@@ -173,7 +603,7 @@ public class Events implements Listener {
         }
     }
 
-    private static class Disconnected implements BindableEvent {
+    protected static class Disconnected extends CachedEvent {
         private final DisconnectedEvent event;
 
         public Disconnected(DisconnectedEvent event) {
@@ -193,7 +623,7 @@ public class Events implements Listener {
         }
     }
 
-    private static class Connected implements BindableEvent {
+    protected static class Connected extends CachedEvent {
         private final ConnectedEvent event;
 
         public Connected(ConnectedEvent event) {
@@ -217,11 +647,14 @@ public class Events implements Listener {
         }
     }
 
-    private static class Nick implements BindableEvent {
+    protected static class Nick extends CachedEvent {
         private final NickEvent event;
+        private final String old;
 
         public Nick(NickEvent event) {
             this.event = event;
+            // The user object keeps changing after we hand this off.
+            this.old = event.getUser().getLastNick();
         }
 
         public Object _GetObject() {
@@ -233,7 +666,7 @@ public class Events implements Listener {
         }
 
         public String getOld() {
-            return event.getUser().getLastNick();
+            return old;
         }
 
         public String getNew() {
@@ -241,7 +674,7 @@ public class Events implements Listener {
         }
     }
     
-    private static class NickInUse implements BindableEvent {
+    protected static class NickInUse extends CachedEvent {
         private final NickInUseEvent event;
 
         public NickInUse(NickInUseEvent event) {
@@ -261,7 +694,7 @@ public class Events implements Listener {
         }
     }
     
-    private static class Numeric implements BindableEvent {
+    protected static class Numeric extends CachedEvent {
         private final NumericEvent event;
 
         public Numeric(NumericEvent event) {
@@ -289,7 +722,7 @@ public class Events implements Listener {
         }
     }
 
-    protected static class ConnectionException implements BindableEvent {
+    protected static class ConnectionException extends CachedEvent {
         private final IOException exception;
         private final SocBot bot;
 
@@ -315,7 +748,47 @@ public class Events implements Listener {
         }
     }
 
-    private static class Welcome implements BindableEvent {
+    protected static class Reconnecting extends CachedEvent {
+        private final SocBot bot;
+        private final int attempt;
+        private final long delay;
+        private final String server;
+        private final int port;
+
+        public Reconnecting(SocBot bot, int attempt, long delay, String server, int port) {
+            this.bot = bot;
+            this.attempt = attempt;
+            this.delay = delay;
+            this.server = server;
+            this.port = port;
+        }
+
+        public Object _GetObject() {
+            return this;
+        }
+
+        public SocBot getBot() {
+            return bot;
+        }
+
+        public int getAttempt() {
+            return attempt;
+        }
+
+        public long getDelay() {
+            return delay;
+        }
+
+        public String getServer() {
+            return server;
+        }
+
+        public int getPort() {
+            return port;
+        }
+    }
+
+    protected static class Welcome extends CachedEvent {
         private final WelcomeEvent event;
 
         public Welcome(WelcomeEvent e) {
@@ -331,11 +804,15 @@ public class Events implements Listener {
         }
     }
 
-    private static class Join implements BindableEvent {
+    protected static class Join extends CachedEvent {
         private final JoinEvent event;
+        private final String who;
+        private final String channel;
 
         public Join(JoinEvent e) {
             event = e;
+            who = e.getUser().getName();
+            channel = e.getChannel().getName();
         }
 
         public Object _GetObject() {
@@ -347,19 +824,21 @@ public class Events implements Listener {
         }
 
         public String getWho() {
-            return event.getUser().getName();
+            return who;
         }
 
         public String getChannel() {
-            return event.getChannel().getName();
+            return channel;
         }
     }
 
-    private static class Quit implements BindableEvent {
+    protected static class Quit extends CachedEvent {
         private final QuitEvent event;
+        private final String who;
 
         public Quit(QuitEvent e) {
             event = e;
+            who = e.getUser().getName();
         }
 
         public Object _GetObject() {
@@ -371,7 +850,7 @@ public class Events implements Listener {
         }
 
         public String getWho() {
-            return event.getUser().getName();
+            return who;
         }
 
         public String getQuitMessage() {
@@ -379,10 +858,81 @@ public class Events implements Listener {
         }
     }
 
-    private static class RecvLine implements BindableEvent {
+    protected static class Netsplit extends CachedEvent {
+        private final SocBot bot;
+        private final String server1;
+        private final String server2;
+        private final List<String> nicks;
+
+        public Netsplit(SocBot bot, String server1, String server2, List<String> nicks) {
+            this.bot = bot;
+            this.server1 = server1;
+            this.server2 = server2;
+            this.nicks = nicks;
+        }
+
+        public Object _GetObject() {
+            return this;
+        }
+
+        public SocBot getBot() {
+            return bot;
+        }
+
+        public String getServer1() {
+            return server1;
+        }
+
+        public String getServer2() {
+            return server2;
+        }
+
+        public List<String> getNicks() {
+            return nicks;
+        }
+    }
+
+    protected static class Netjoin extends Netsplit {
+        private final Map<String, List<String>> channels;
+
+        public Netjoin(SocBot bot, String server1, String server2, List<String> nicks,
+                Map<String, List<String>> channels) {
+            super(bot, server1, server2, nicks);
+            this.channels = channels;
+        }
+
+        public Map<String, List<String>> getChannels() {
+            return channels;
+        }
+    }
+
+    protected static class BatchLines extends CachedEvent {
+        private final SocBot bot;
+        private final Batches.Batch batch;
+
+        public BatchLines(SocBot bot, Batches.Batch batch) {
+            this.bot = bot;
+            this.batch = batch;
+        }
+
+        public Object _GetObject() {
+            return this;
+        }
+
+        public SocBot getBot() {
+            return bot;
+        }
+
+        public Batches.Batch getBatch() {
+            return batch;
+        }
+    }
+
+    protected static class RecvLine extends LineEvent {
         private final PacketReceivedEvent event;
 
         public RecvLine(PacketReceivedEvent e) {
+            super(e.getBot(), e.getPacket());
             event = e;
         }
 
@@ -399,11 +949,15 @@ public class Events implements Listener {
         }
     }
 
-    private static class Part implements BindableEvent {
+    protected static class Part extends CachedEvent {
         private final PartEvent event;
+        private final String who;
+        private final String channel;
 
         public Part(PartEvent e) {
             event = e;
+            who = e.getUser().getName();
+            channel = e.getChannel().getName();
         }
 
         public Object _GetObject() {
@@ -415,19 +969,24 @@ public class Events implements Listener {
         }
 
         public String getWho() {
-            return event.getUser().getName();
+            return who;
         }
 
         public String getChannel() {
-            return event.getChannel().getName();
+            return channel;
         }
     }
 
-    private static class PrivMsg implements BindableEvent {
+    protected static class PrivMsg extends LineEvent {
         private final PrivmsgEvent event;
+        private final String who;
+        private final String target;
 
         public PrivMsg(PrivmsgEvent e) {
+            super(e.getBot(), e.getPacket());
             event = e;
+            who = e.getSender().getName();
+            target = e.getTarget().getName();
         }
 
         public Object _GetObject() {
@@ -439,11 +998,11 @@ public class Events implements Listener {
         }
 
         public String getWho() {
-            return event.getSender().getName();
+            return who;
         }
 
         public String getTarget() {
-            return event.getTarget().getName();
+            return target;
         }
 
         public String getMessage() {
@@ -451,11 +1010,16 @@ public class Events implements Listener {
         }
     }
 
-    private static class Action implements BindableEvent {
+    protected static class Action extends LineEvent {
         private final CTCPEvent event;
+        private final String who;
+        private final String target;
 
         public Action(CTCPEvent e) {
+            super(e.getBot(), e.getPacket());
             event = e;
+            who = e.getSender().getName();
+            target = e.getTarget().getName();
         }
 
         public Object _GetObject() {
@@ -467,11 +1031,11 @@ public class Events implements Listener {
         }
 
         public String getWho() {
-            return event.getSender().getName();
+            return who;
         }
 
         public String getTarget() {
-            return event.getTarget().getName();
+            return target;
         }
 
         public String getMessage() {
@@ -479,36 +1043,190 @@ public class Events implements Listener {
         }
     }
 
-    private abstract static class IrcEvent extends AbstractEvent {
-        public boolean matches(Map<String, Mixed> prefilter, BindableEvent e) throws PrefilterNonMatchException {
-            return true;
+    /**
+     * A bind's prefilters, compiled once when the bind is registered. Exact
+     * match keys are stored as lowercased hash sets, and values wrapped in
+     * slashes are compiled as regexes.
+     */
+    private static class Prefilter {
+        private final Map<String, Set<String>> exact = new HashMap<String, Set<String>>();
+        private final Map<String, Pattern> patterns = new HashMap<String, Pattern>();
+
+        public Prefilter(Map<String, Mixed> prefilter) {
+            for (Map.Entry<String, Mixed> entry : prefilter.entrySet()) {
+                String key = entry.getKey().toLowerCase(Locale.ENGLISH);
+
+                if (key.equals("channel")) {
+                    key = "target";
+                }
+
+                Mixed value = entry.getValue();
+
+                if (value instanceof CArray) {
+                    Set<String> values = new HashSet<String>();
+
+                    for (Mixed item : (CArray) value) {
+                        values.add(item.val().toLowerCase(Locale.ENGLISH));
+                    }
+
+                    exact.put(key, values);
+                    continue;
+                }
+
+                String val = value.val();
+
+                if (val.length() > 1 && val.startsWith("/") && val.endsWith("/")) {
+                    try {
+                        patterns.put(key, Pattern.compile(val.substring(1, val.length() - 1)));
+                        continue;
+                    } catch (PatternSyntaxException ex) {
+                        Utils.log("CHIRC", "Bad regex in prefilter " + key + ": "
+                                + ex.getMessage(), Target.UNKNOWN);
+                    }
+                }
+
+                exact.put(key, Collections.singleton(val.toLowerCase(Locale.ENGLISH)));
+            }
         }
 
-        public BindableEvent convert(CArray manualObject, Target t) {
-            return null;
-        }
+        public Set<String> keys() {
+            Set<String> keys = new HashSet<String>(exact.keySet());
+            keys.addAll(patterns.keySet());
 
-        public Driver driver() {
-            return Driver.EXTENSION;
+            return keys;
         }
 
-        public boolean modifyEvent(String key, Mixed value, BindableEvent event) throws ConfigRuntimeException {
-            return false;
-        }
+        /**
+         * Whether the event has a matching value for every key. Keys the
+         * event doesn't have never match.
+         */
+        public boolean matches(IrcEvent event, BindableEvent e) {
+            for (Map.Entry<String, Set<String>> entry : exact.entrySet()) {
+                String value = event.prefilterValue(entry.getKey(), e);
 
-        public Version since() {
-            return MSVersion.V3_3_1;
+                if (value == null || !entry.getValue().contains(value.toLowerCase(Locale.ENGLISH))) {
+                    return false;
+                }
+            }
+
+            for (Map.Entry<String, Pattern> entry : patterns.entrySet()) {
+                String value = event.prefilterValue(entry.getKey(), e);
+
+                if (value == null || !entry.getValue().matcher(value).find()) {
+                    return false;
+                }
+            }
+
+            return true;
         }
     }
 
-    @api
-    public static class irc_disconnected extends IrcEvent {
+    private abstract static class IrcEvent extends AbstractEvent {
+        private final Map<Map<String, Mixed>, Prefilter> prefilters =
+                Collections.synchronizedMap(new IdentityHashMap<Map<String, Mixed>, Prefilter>());
+        private final Set<String> keys = new HashSet<String>();
+
+        /**
+         * Keys are the prefilters this event supports besides id.
+         */
+        protected IrcEvent(String... keys) {
+            this.keys.add("id");
+            this.keys.addAll(Arrays.asList(keys));
+        }
+
+        @Override
+        public void bind(BoundEvent event) {
+            bindChanged(getName(), 1);
+
+            Map<String, Mixed> prefilter = event.getPrefilter();
+
+            if (prefilter != null && !prefilter.isEmpty()) {
+                Prefilter compiled = new Prefilter(prefilter);
+
+                for (String key : compiled.keys()) {
+                    if (!keys.contains(key)) {
+                        Utils.log("CHIRC", "Unknown prefilter " + key + " for " + getName()
+                                + "; the bind will never fire.", Target.UNKNOWN);
+                    }
+                }
+
+                prefilters.put(prefilter, compiled);
+            }
+        }
+
+        @Override
+        public void unbind(BoundEvent event) {
+            bindChanged(getName(), -1);
+
+            Map<String, Mixed> prefilter = event.getPrefilter();
+
+            if (prefilter != null) {
+                prefilters.remove(prefilter);
+            }
+        }
+
+        public boolean matches(Map<String, Mixed> prefilter, BindableEvent e) throws PrefilterNonMatchException {
+            if (prefilter == null || prefilter.isEmpty()) {
+                return true;
+            }
+
+            Prefilter compiled = prefilters.get(prefilter);
+
+            if (compiled == null) {
+                compiled = new Prefilter(prefilter);
+                prefilters.put(prefilter, compiled);
+            }
+
+            return compiled.matches(this, e);
+        }
+
+        /**
+         * The value of a prefilter key for this event, or null if the key
+         * isn't supported by this event. "channel" is passed as "target".
+         */
+        protected String prefilterValue(String key, BindableEvent e) {
+            if (key.equals("id") && e instanceof CachedEvent) {
+                return ((CachedEvent) e).getBot().getID();
+            }
+
+            return null;
+        }
+
+        public BindableEvent convert(CArray manualObject, Target t) {
+            return null;
+        }
+
+        public Driver driver() {
+            return Driver.EXTENSION;
+        }
+
+        public boolean modifyEvent(String key, Mixed value, BindableEvent event) throws ConfigRuntimeException {
+            return false;
+        }
+
+        public Version since() {
+            return MSVersion.V3_3_1;
+        }
+
+        protected static CArray toArray(Map<String, String> tags) {
+            CArray array = CArray.GetAssociativeArray(Target.UNKNOWN);
+
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                array.set(tag.getKey(), tag.getValue());
+            }
+
+            return array;
+        }
+    }
+
+    @api
+    public static class irc_disconnected extends IrcEvent {
         public String getName() {
             return "irc_disconnected";
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match>}"
                     + " Fires when disconnected from host. If irc_destroy or irc_quit is used, wasClean will be true."
                     + " It will be false if a timeout or other error occurred."
                     + "{id | wasClean: Whether bot disconnected without error}"
@@ -517,16 +1235,25 @@ public class Events implements Listener {
         }
 
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof Disconnected)) {
+                return new HashMap<String, Mixed>();
+            }
 
-            if (e instanceof Disconnected) {
-                Disconnected msg = (Disconnected) e;
+            final Disconnected msg = (Disconnected) e;
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("wasClean", CBoolean.get(msg.wasClean()));
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "wasClean") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("wasClean")) {
+                            return CBoolean.get(msg.wasClean());
+                        }
+
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
 
@@ -537,7 +1264,7 @@ public class Events implements Listener {
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match>}"
                     + " Fires when user has their nickname changed."
                     + "{id | oldnick: The previous nickname | newnick: The now current nickname}"
                     + "{}"
@@ -545,17 +1272,29 @@ public class Events implements Listener {
         }
 
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof Nick)) {
+                return new HashMap<String, Mixed>();
+            }
 
-            if (e instanceof Nick) {
-                Nick msg = (Nick) e;
+            final Nick msg = (Nick) e;
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("oldnick", new CString(msg.getOld(), Target.UNKNOWN));
-                retn.put("newnick", new CString(msg.getNew(), Target.UNKNOWN));
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "oldnick", "newnick") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("oldnick")) {
+                            return new CString(msg.getOld(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("newnick")) {
+                            return new CString(msg.getNew(), Target.UNKNOWN);
+                        }
+
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
     
@@ -566,7 +1305,7 @@ public class Events implements Listener {
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match>}"
                     + " Fires when an attempt at changing nickname fails because the nick is in use."
                     + "{id | nick: The attempted nickname}"
                     + "{}"
@@ -574,47 +1313,106 @@ public class Events implements Listener {
         }
 
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof NickInUse)) {
+                return new HashMap<String, Mixed>();
+            }
 
-            if (e instanceof NickInUse) {
-                NickInUse msg = (NickInUse) e;
+            final NickInUse msg = (NickInUse) e;
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("nick", CBoolean.get(msg.getNick()));
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "nick") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("nick")) {
+                            return new CString(msg.getNick(), Target.UNKNOWN);
+                        }
+
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
     
     @api
     public static class irc_numeric extends IrcEvent {
+        public irc_numeric() {
+            super("numeric", "numericid", "message");
+        }
+
         public String getName() {
             return "irc_numeric";
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match> | numeric: <string match> | numericid: <string match>"
+                    + " | message: <string match> or /regex/}"
                     + " Fires when certain numeric packets are received. (See RFC 2812)"
                     + "{id | numeric | numericid | args | message }"
                     + "{}"
                     + "{}";
         }
 
+        @Override
+        protected String prefilterValue(String key, BindableEvent e) {
+            if (!(e instanceof Numeric)) {
+                return null;
+            }
+
+            Numeric msg = (Numeric) e;
+
+            if (key.equals("id")) {
+                return msg.getBot().getID();
+            }
+
+            if (key.equals("numeric")) {
+                return msg.getNumeric().getName();
+            }
+
+            if (key.equals("numericid")) {
+                return Integer.toString(msg.getNumeric().getCode());
+            }
+
+            if (key.equals("message")) {
+                return msg.getMessage();
+            }
+
+            return null;
+        }
+
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof Numeric)) {
+                return new HashMap<String, Mixed>();
+            }
+
+            final Numeric msg = (Numeric) e;
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "numeric", "numericid", "args", "message") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("numeric")) {
+                            return new CString(msg.getNumeric().getName(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("numericid")) {
+                            return new CInt(msg.getNumeric().getCode(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("args")) {
+                            return Construct.GetConstruct(msg.getArgs());
+                        }
 
-            if (e instanceof Numeric) {
-                Numeric msg = (Numeric) e;
+                        if (key.equals("message")) {
+                            return new CString(msg.getMessage(), Target.UNKNOWN);
+                        }
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("numeric", new CString(msg.getNumeric().getName(), Target.UNKNOWN));
-                retn.put("numericid", new CInt(msg.getNumeric().getCode(), Target.UNKNOWN));
-                retn.put("args", Construct.GetConstruct(msg.getArgs()));
-                retn.put("message", new CString(msg.getMessage(), Target.UNKNOWN));
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
 
@@ -625,7 +1423,7 @@ public class Events implements Listener {
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match>}"
                     + " Fires when connected to host. Bot is about to attempt signin."
                     + " The bot isn't in the server yet. (advanced use only!)"
                     + "{id | server: The host connected to | port: The port connected to}"
@@ -634,17 +1432,29 @@ public class Events implements Listener {
         }
 
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof Connected)) {
+                return new HashMap<String, Mixed>();
+            }
+
+            final Connected msg = (Connected) e;
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "server", "port") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("server")) {
+                            return new CString(msg.getServer(), Target.UNKNOWN);
+                        }
 
-            if (e instanceof Connected) {
-                Connected msg = (Connected) e;
+                        if (key.equals("port")) {
+                            return new CInt(msg.getPort(), Target.UNKNOWN);
+                        }
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("server", new CString(msg.getServer(), Target.UNKNOWN));
-                retn.put("port", new CInt(msg.getPort(), Target.UNKNOWN));
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
 
@@ -655,7 +1465,7 @@ public class Events implements Listener {
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match>}"
                     + " Fires when connection fails. Triggers reconnect."
                     + "{id | exceptionclass: The exception's simple class name | message}"
                     + "{}"
@@ -663,47 +1473,183 @@ public class Events implements Listener {
         }
 
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof ConnectionException)) {
+                return new HashMap<String, Mixed>();
+            }
+
+            final ConnectionException msg = (ConnectionException) e;
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "message", "exceptionclass") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("message")) {
+                            return new CString(msg.getMessage(), Target.UNKNOWN);
+                        }
 
-            if (e instanceof ConnectionException) {
-                ConnectionException msg = (ConnectionException) e;
+                        if (key.equals("exceptionclass")) {
+                            return new CString(msg.className(), Target.UNKNOWN);
+                        }
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("message", new CString(msg.getMessage(), Target.UNKNOWN));
-                retn.put("exceptionclass", new CString(msg.className(), Target.UNKNOWN));
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
+        }
+    }
+
+    @api
+    public static class irc_reconnecting extends IrcEvent {
+        public String getName() {
+            return "irc_reconnecting";
+        }
+
+        public String docs() {
+            return "{id: <string match>}"
+                    + " Fires when a bot that was connected with the reconnect option"
+                    + " schedules its next connection attempt."
+                    + "{id | attempt: How many attempts have been made since the last"
+                    + " successful sign in, including this one | delay: Milliseconds until"
+                    + " the attempt | server: The host that will be tried | port}"
+                    + "{}"
+                    + "{}";
+        }
+
+        @Override
+        protected String prefilterValue(String key, BindableEvent e) {
+            if (!(e instanceof Reconnecting)) {
+                return null;
+            }
+
+            Reconnecting msg = (Reconnecting) e;
+
+            if (key.equals("id")) {
+                return msg.getBot().getID();
+            }
+
+            return null;
+        }
+
+        public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
+            if (!(e instanceof Reconnecting)) {
+                return new HashMap<String, Mixed>();
+            }
+
+            final Reconnecting msg = (Reconnecting) e;
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "attempt", "delay", "server", "port") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("attempt")) {
+                            return new CInt(msg.getAttempt(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("delay")) {
+                            return new CInt(msg.getDelay(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("server")) {
+                            return new CString(msg.getServer(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("port")) {
+                            return new CInt(msg.getPort(), Target.UNKNOWN);
+                        }
+
+                        return null;
+                    }
+                });
+            }
+
+            return msg.getData();
         }
     }
 
     @api
     public static class irc_msg extends IrcEvent {
+        public irc_msg() {
+            super("target", "who", "message");
+        }
+
         public String getName() {
             return "irc_msg";
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match> | target: <string match> (channel is an alias)"
+                    + " | who: <string match> | message: <string match> or /regex/}"
                     + " Fires when bot sends or receives a private message."
-                    + "{id | who: The sender | target: The receiving channel or user | message }"
+                    + "{id | who: The sender | target: The receiving channel or user | message"
+                    + " | tags: The IRCv3 message tags, if any | time: When it was sent, in"
+                    + " milliseconds, from server-time if available }"
                     + "{}"
                     + "{}";
         }
 
+        @Override
+        protected String prefilterValue(String key, BindableEvent e) {
+            if (!(e instanceof PrivMsg)) {
+                return null;
+            }
+
+            PrivMsg msg = (PrivMsg) e;
+
+            if (key.equals("id")) {
+                return msg.getBot().getID();
+            }
+
+            if (key.equals("target")) {
+                return msg.getTarget();
+            }
+
+            if (key.equals("who")) {
+                return msg.getWho();
+            }
+
+            if (key.equals("message")) {
+                return msg.getMessage();
+            }
+
+            return null;
+        }
+
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof PrivMsg)) {
+                return new HashMap<String, Mixed>();
+            }
+
+            final PrivMsg msg = (PrivMsg) e;
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "who", "target", "message", "tags", "time") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("who")) {
+                            return new CString(msg.getWho(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("target")) {
+                            return new CString(msg.getTarget(), Target.UNKNOWN);
+                        }
 
-            if (e instanceof PrivMsg) {
-                PrivMsg msg = (PrivMsg) e;
+                        if (key.equals("message")) {
+                            return new CString(msg.getMessage(), Target.UNKNOWN);
+                        }
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("who", new CString(msg.getWho(), Target.UNKNOWN));
-                retn.put("target", new CString(msg.getTarget(), Target.UNKNOWN));
-                retn.put("message", new CString(msg.getMessage(), Target.UNKNOWN));
+                        if (key.equals("tags")) {
+                            return toArray(msg.getTags());
+                        }
+
+                        if (key.equals("time")) {
+                            return new CInt(msg.getTime(), Target.UNKNOWN);
+                        }
+
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
 
@@ -714,7 +1660,7 @@ public class Events implements Listener {
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match>}"
                     + " Fires when error packet is received."
                     + "{id | message }"
                     + "{}"
@@ -722,16 +1668,25 @@ public class Events implements Listener {
         }
 
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof Error)) {
+                return new HashMap<String, Mixed>();
+            }
 
-            if (e instanceof Error) {
-                Error msg = (Error) e;
+            final Error msg = (Error) e;
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("message", new CString(msg.getMessage(), Target.UNKNOWN));
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "message") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("message")) {
+                            return new CString(msg.getMessage(), Target.UNKNOWN);
+                        }
+
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
 
@@ -742,55 +1697,129 @@ public class Events implements Listener {
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match>}"
                     + " Fires when a packet is received. This is fired before any tracking is done by the internal"
                     + " library, so be aware of what you're doing!"
-                    + "{id | line: The raw packet data }"
+                    + "{id | line: The raw packet data | tags: The IRCv3 message tags, if any"
+                    + " | time: As for irc_msg }"
                     + "{}"
                     + "{}";
         }
 
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof RecvLine)) {
+                return new HashMap<String, Mixed>();
+            }
 
-            if (e instanceof RecvLine) {
-                RecvLine msg = (RecvLine) e;
+            final RecvLine msg = (RecvLine) e;
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("line", new CString(msg.getPacket().getOriginalLine(), Target.UNKNOWN));
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "line", "tags", "time") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("line")) {
+                            return new CString(msg.getPacket().getOriginalLine(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("tags")) {
+                            return toArray(msg.getTags());
+                        }
+
+                        if (key.equals("time")) {
+                            return new CInt(msg.getTime(), Target.UNKNOWN);
+                        }
+
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
 
     @api
     public static class irc_action extends IrcEvent {
+        public irc_action() {
+            super("target", "who", "message");
+        }
+
         public String getName() {
             return "irc_action";
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match> | target: <string match> (channel is an alias)"
+                    + " | who: <string match> | message: <string match> or /regex/}"
                     + " Fires when an action CTCP message is received. (/me)"
-                    + "{id | who | target: The receiving channel or user  | message }"
+                    + "{id | who | target: The receiving channel or user  | message | tags"
+                    + " | time: As for irc_msg }"
                     + "{}"
                     + "{}";
         }
 
+        @Override
+        protected String prefilterValue(String key, BindableEvent e) {
+            if (!(e instanceof Action)) {
+                return null;
+            }
+
+            Action msg = (Action) e;
+
+            if (key.equals("id")) {
+                return msg.getBot().getID();
+            }
+
+            if (key.equals("target")) {
+                return msg.getTarget();
+            }
+
+            if (key.equals("who")) {
+                return msg.getWho();
+            }
+
+            if (key.equals("message")) {
+                return msg.getMessage();
+            }
+
+            return null;
+        }
+
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof Action)) {
+                return new HashMap<String, Mixed>();
+            }
 
-            if (e instanceof Action) {
-                Action msg = (Action) e;
+            final Action msg = (Action) e;
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("who", new CString(msg.getWho(), Target.UNKNOWN));
-                retn.put("target", new CString(msg.getTarget(), Target.UNKNOWN));
-                retn.put("message", new CString(msg.getMessage(), Target.UNKNOWN));
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "who", "target", "message", "tags", "time") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("who")) {
+                            return new CString(msg.getWho(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("target")) {
+                            return new CString(msg.getTarget(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("message")) {
+                            return new CString(msg.getMessage(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("tags")) {
+                            return toArray(msg.getTags());
+                        }
+
+                        if (key.equals("time")) {
+                            return new CInt(msg.getTime(), Target.UNKNOWN);
+                        }
+
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
 
@@ -801,7 +1830,7 @@ public class Events implements Listener {
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match>}"
                     + " Fires when a welcome reply is received after the bot successfully signed in."
                     + "{id}"
                     + "{}"
@@ -809,101 +1838,473 @@ public class Events implements Listener {
         }
 
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof Welcome)) {
+                return new HashMap<String, Mixed>();
+            }
 
-            if (e instanceof Welcome) {
-                Welcome msg = (Welcome) e;
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
+            final Welcome msg = (Welcome) e;
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot()) {
+                    protected Mixed compute(String key) {
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
 
     @api
     public static class irc_joined extends IrcEvent {
+        public irc_joined() {
+            super("target", "who");
+        }
+
         public String getName() {
             return "irc_joined";
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match> | channel: <string match> | who: <string match>}"
                     + " Fires when a user joins a channel. User could be self when using irc_join()."
                     + "{id | who: The user that joined | channel: The channel that was joined }"
                     + "{}"
                     + "{}";
         }
 
+        @Override
+        protected String prefilterValue(String key, BindableEvent e) {
+            if (!(e instanceof Join)) {
+                return null;
+            }
+
+            Join msg = (Join) e;
+
+            if (key.equals("id")) {
+                return msg.getBot().getID();
+            }
+
+            if (key.equals("target")) {
+                return msg.getChannel();
+            }
+
+            if (key.equals("who")) {
+                return msg.getWho();
+            }
+
+            return null;
+        }
+
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof Join)) {
+                return new HashMap<String, Mixed>();
+            }
+
+            final Join msg = (Join) e;
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "who", "channel") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("who")) {
+                            return new CString(msg.getWho(), Target.UNKNOWN);
+                        }
 
-            if (e instanceof Join) {
-                Join msg = (Join) e;
+                        if (key.equals("channel")) {
+                            return new CString(msg.getChannel(), Target.UNKNOWN);
+                        }
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("who", new CString(msg.getWho(), Target.UNKNOWN));
-                retn.put("channel", new CString(msg.getChannel(), Target.UNKNOWN));
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
 
     @api
     public static class irc_quit extends IrcEvent {
+        public irc_quit() {
+            super("who", "message");
+        }
+
         public String getName() {
             return "irc_quit";
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match> | who: <string match> | message: <string match> or /regex/}"
                     + " Fires when a user quits. User could be self when using irc_quit()."
                     + "{id | who: The user that quit | message }"
                     + "{}"
                     + "{}";
         }
 
+        @Override
+        protected String prefilterValue(String key, BindableEvent e) {
+            if (!(e instanceof Quit)) {
+                return null;
+            }
+
+            Quit msg = (Quit) e;
+
+            if (key.equals("id")) {
+                return msg.getBot().getID();
+            }
+
+            if (key.equals("who")) {
+                return msg.getWho();
+            }
+
+            if (key.equals("message")) {
+                return msg.getQuitMessage();
+            }
+
+            return null;
+        }
+
+        public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
+            if (!(e instanceof Quit)) {
+                return new HashMap<String, Mixed>();
+            }
+
+            final Quit msg = (Quit) e;
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "who", "message") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("who")) {
+                            return new CString(msg.getWho(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("message")) {
+                            return new CString(msg.getQuitMessage(), Target.UNKNOWN);
+                        }
+
+                        return null;
+                    }
+                });
+            }
+
+            return msg.getData();
+        }
+    }
+
+    /**
+     * Shared by irc_netsplit and irc_netjoin.
+     */
+    private abstract static class SplitEvent extends IrcEvent {
+        protected SplitEvent() {
+            super("server1", "server2");
+        }
+
+        @Override
+        protected String prefilterValue(String key, BindableEvent e) {
+            if (!(e instanceof Netsplit)) {
+                return null;
+            }
+
+            Netsplit msg = (Netsplit) e;
+
+            if (key.equals("id")) {
+                return msg.getBot().getID();
+            }
+
+            if (key.equals("server1")) {
+                return msg.getServer1();
+            }
+
+            if (key.equals("server2")) {
+                return msg.getServer2();
+            }
+
+            return null;
+        }
+
+        protected static CArray toArray(List<String> values) {
+            CArray array = new CArray(Target.UNKNOWN);
+
+            for (String value : values) {
+                array.push(new CString(value, Target.UNKNOWN), Target.UNKNOWN);
+            }
+
+            return array;
+        }
+    }
+
+    @api
+    public static class irc_netsplit extends SplitEvent {
+        public String getName() {
+            return "irc_netsplit";
+        }
+
+        public String docs() {
+            return "{id: <string match> | server1: <string match> | server2: <string match>}"
+                    + " Fires instead of irc_quit for users lost in a netsplit, once the"
+                    + " burst of quits is over. Without a bind for this event, irc_quit"
+                    + " fires for each of them as usual."
+                    + "{id | server1: The server that stayed | server2: The server that"
+                    + " split off | nicks: An array of the users that quit}"
+                    + "{}"
+                    + "{}";
+        }
+
+        public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
+            if (!(e instanceof Netsplit)) {
+                return new HashMap<String, Mixed>();
+            }
+
+            final Netsplit msg = (Netsplit) e;
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "server1", "server2", "nicks") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("server1")) {
+                            return new CString(msg.getServer1(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("server2")) {
+                            return new CString(msg.getServer2(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("nicks")) {
+                            return toArray(msg.getNicks());
+                        }
+
+                        return null;
+                    }
+                });
+            }
+
+            return msg.getData();
+        }
+    }
+
+    @api
+    public static class irc_netjoin extends SplitEvent {
+        public String getName() {
+            return "irc_netjoin";
+        }
+
+        public String docs() {
+            return "{id: <string match> | server1: <string match> | server2: <string match>}"
+                    + " Fires instead of irc_joined for users rejoining after a netsplit,"
+                    + " once the burst of joins is over. Without a bind for this event,"
+                    + " irc_joined fires for each join as usual."
+                    + "{id | server1 | server2: The servers from the netsplit | nicks: An"
+                    + " array of the users that rejoined | channels: An array of channel"
+                    + " names to arrays of the users that rejoined each}"
+                    + "{}"
+                    + "{}";
+        }
+
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof Netjoin)) {
+                return new HashMap<String, Mixed>();
+            }
+
+            final Netjoin msg = (Netjoin) e;
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "server1", "server2", "nicks", "channels") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("server1")) {
+                            return new CString(msg.getServer1(), Target.UNKNOWN);
+                        }
 
-            if (e instanceof Quit) {
-                Quit msg = (Quit) e;
+                        if (key.equals("server2")) {
+                            return new CString(msg.getServer2(), Target.UNKNOWN);
+                        }
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("who", new CString(msg.getWho(), Target.UNKNOWN));
-                retn.put("message", new CString(msg.getQuitMessage(), Target.UNKNOWN));
+                        if (key.equals("nicks")) {
+                            return toArray(msg.getNicks());
+                        }
+
+                        if (key.equals("channels")) {
+                            CArray channels = new CArray(Target.UNKNOWN);
+
+                            for (Map.Entry<String, List<String>> entry : msg.getChannels().entrySet()) {
+                                channels.set(entry.getKey(), toArray(entry.getValue()), Target.UNKNOWN);
+                            }
+
+                            return channels;
+                        }
+
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
 
     @api
     public static class irc_parted extends IrcEvent {
+        public irc_parted() {
+            super("target", "who");
+        }
+
         public String getName() {
             return "irc_parted";
         }
 
         public String docs() {
-            return "{}"
+            return "{id: <string match> | channel: <string match> | who: <string match>}"
                     + " Fires when a user leaves a channel. User could be self when using irc_part()."
                     + "{id | who: The user that left | channel: The channel that was left }"
                     + "{}"
                     + "{}";
         }
 
+        @Override
+        protected String prefilterValue(String key, BindableEvent e) {
+            if (!(e instanceof Part)) {
+                return null;
+            }
+
+            Part msg = (Part) e;
+
+            if (key.equals("id")) {
+                return msg.getBot().getID();
+            }
+
+            if (key.equals("target")) {
+                return msg.getChannel();
+            }
+
+            if (key.equals("who")) {
+                return msg.getWho();
+            }
+
+            return null;
+        }
+
         public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
-            Map<String, Mixed> retn = new HashMap<String, Mixed>();
+            if (!(e instanceof Part)) {
+                return new HashMap<String, Mixed>();
+            }
+
+            final Part msg = (Part) e;
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "who", "channel") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("who")) {
+                            return new CString(msg.getWho(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("channel")) {
+                            return new CString(msg.getChannel(), Target.UNKNOWN);
+                        }
+
+                        return null;
+                    }
+                });
+            }
+
+            return msg.getData();
+        }
+    }
+
+    @api
+    public static class irc_batch extends IrcEvent {
+        public irc_batch() {
+            super("type");
+        }
+
+        public String getName() {
+            return "irc_batch";
+        }
+
+        public String docs() {
+            return "{id: <string match> | type: <string match>}"
+                    + " Fires once an IRCv3 BATCH, such as chathistory or a netsplit, has"
+                    + " been fully received, if batch was negotiated in irc_connect. While"
+                    + " this event is bound, lines in a batch don't fire any other event."
+                    + " Lines of a chathistory batch never do, and no batched line runs"
+                    + " commands or relays."
+                    + "{id | ref: The batch's reference | type | params: An array of the"
+                    + " batch's parameters | lines: An array of arrays of line and tags,"
+                    + " one per line in the batch | truncated: Whether lines past "
+                    + Batches.MAX_LINES + " were dropped}"
+                    + "{}"
+                    + "{}";
+        }
+
+        @Override
+        protected String prefilterValue(String key, BindableEvent e) {
+            if (!(e instanceof BatchLines)) {
+                return null;
+            }
+
+            BatchLines msg = (BatchLines) e;
+
+            if (key.equals("id")) {
+                return msg.getBot().getID();
+            }
+
+            if (key.equals("type")) {
+                return msg.getBatch().getType();
+            }
+
+            return null;
+        }
+
+        public Map<String, Mixed> evaluate(BindableEvent e) throws EventException {
+            if (!(e instanceof BatchLines)) {
+                return new HashMap<String, Mixed>();
+            }
+
+            final BatchLines msg = (BatchLines) e;
+            final Batches.Batch batch = msg.getBatch();
+
+            if (!msg.hasData()) {
+                msg.setData(new EventData(msg.getBot(), "ref", "type", "params", "lines", "truncated") {
+                    protected Mixed compute(String key) {
+                        if (key.equals("ref")) {
+                            return new CString(batch.getRef(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("type")) {
+                            return new CString(batch.getType(), Target.UNKNOWN);
+                        }
+
+                        if (key.equals("params")) {
+                            CArray params = new CArray(Target.UNKNOWN);
+
+                            for (String param : batch.getParams()) {
+                                params.push(new CString(param, Target.UNKNOWN), Target.UNKNOWN);
+                            }
+
+                            return params;
+                        }
+
+                        if (key.equals("lines")) {
+                            CArray lines = new CArray(Target.UNKNOWN);
+
+                            for (String line : batch.getLines()) {
+                                CArray entry = CArray.GetAssociativeArray(Target.UNKNOWN);
+                                entry.set("line", line);
+                                entry.set("tags", toArray(MessageTags.parse(line)), Target.UNKNOWN);
+                                lines.push(entry, Target.UNKNOWN);
+                            }
+
+                            return lines;
+                        }
 
-            if (e instanceof Part) {
-                Part msg = (Part) e;
+                        if (key.equals("truncated")) {
+                            return CBoolean.get(batch.isTruncated());
+                        }
 
-                retn.put("id", new CString(msg.getBot().getID(), Target.UNKNOWN));
-                retn.put("who", new CString(msg.getWho(), Target.UNKNOWN));
-                retn.put("channel", new CString(msg.getChannel(), Target.UNKNOWN));
+                        return null;
+                    }
+                });
             }
 
-            return retn;
+            return msg.getData();
         }
     }
 }
@@ -23,8 +23,6 @@
  */
 package com.entityreborn.chirc;
 
-import com.entityreborn.chirc.Events.ConnectionException;
-import static com.entityreborn.chirc.Tracking.flatten;
 import static com.entityreborn.chirc.Utils.verbose;
 import com.entityreborn.socbot.Channel;
 import com.entityreborn.socbot.Colors;
@@ -33,35 +31,43 @@ import com.entityreborn.socbot.Styles;
 import com.entityreborn.socbot.User;
 import com.laytonsmith.PureUtilities.Common.StringUtils;
 import com.laytonsmith.PureUtilities.Version;
-import com.laytonsmith.abstraction.StaticLayer;
 import com.laytonsmith.annotations.api;
 import com.laytonsmith.core.MSVersion;
 import com.laytonsmith.core.Static;
 import com.laytonsmith.core.constructs.CArray;
 import com.laytonsmith.core.constructs.CBoolean;
+import com.laytonsmith.core.constructs.CClosure;
+import com.laytonsmith.core.constructs.CInt;
 import com.laytonsmith.core.constructs.CNull;
 import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.Construct;
 import com.laytonsmith.core.constructs.Target;
 import com.laytonsmith.core.environments.Environment;
-import com.laytonsmith.core.events.Driver;
-import com.laytonsmith.core.events.EventUtils;
 import com.laytonsmith.core.exceptions.CRE.*;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
 import com.laytonsmith.core.functions.AbstractFunction;
 import com.laytonsmith.core.natives.interfaces.Mixed;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.Callable;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  *
  * @author Jason Unger <entityreborn@gmail.com>
  */
 public class Functions {
+    // Leave most of the line for the message when packing targets.
+    private static final int MAX_TARGETS_LENGTH = 200;
+
     public abstract static class IrcFunc extends AbstractFunction {
         public Class<? extends CREThrowable>[] thrown() {
             return new Class[]{};
@@ -80,10 +86,240 @@ public class Functions {
         }
     }
 
+    static SendQueue getQueue(SocBot bot, Target t) {
+        SendQueue queue = Tracking.getQueue(bot);
+
+        if (queue == null) {
+            throw new CRENotFoundException("That id doesn't exist!", t);
+        }
+
+        return queue;
+    }
+
+    static void enqueue(SocBot bot, String line, Target t) {
+        if (!getQueue(bot, t).offer(line)) {
+            throw new CREIOException("The send queue for this bot is full!", t);
+        }
+
+        sent(bot);
+    }
+
+    static void enqueuePriority(SocBot bot, String line, Target t) {
+        if (!getQueue(bot, t).offerPriority(line)) {
+            throw new CREIOException("The send queue for this bot is closed!", t);
+        }
+
+        sent(bot);
+    }
+
+    static void enqueueAll(SocBot bot, List<String> lines, Target t) {
+        if (!lines.isEmpty() && !getQueue(bot, t).offerAll(lines)) {
+            throw new CREIOException("The send queue for this bot doesn't have"
+                    + " room for " + lines.size() + " more lines!", t);
+        }
+
+        sent(bot);
+    }
+
+    static void enqueueAll(SocBot bot, List<String> controls, List<String> lines, Target t) {
+        if (!getQueue(bot, t).offerAll(controls, lines)) {
+            throw new CREIOException("The send queue for this bot doesn't have"
+                    + " room for " + lines.size() + " more lines!", t);
+        }
+
+        sent(bot);
+    }
+
+    private static void sent(SocBot bot) {
+        Stats stats = Tracking.getStats(bot);
+
+        if (stats != null) {
+            stats.sent();
+        }
+    }
+
+    static Relay getRelay(SocBot bot, String name, Target t) {
+        ConcurrentMap<String, Relay> relays = Tracking.getRelays(bot);
+        Relay relay = relays == null ? null : relays.get(name);
+
+        if (relay == null) {
+            throw new CRENotFoundException("There's no relay named " + name + "!", t);
+        }
+
+        return relay;
+    }
+
+    /**
+     * Throw if a name can't be used as a message target.
+     */
+    static void validate(String name, Target t) {
+        if (name.isEmpty() || name.indexOf(' ') != -1 || name.indexOf('\r') != -1
+                || name.indexOf('\n') != -1 || name.indexOf(',') != -1) {
+            throw new CREFormatException("\"" + name + "\" isn't a valid target.", t);
+        }
+    }
+
+    /**
+     * The name to send a message to. Known users and channels are looked up
+     * through the bot's target cache; anything else is sent to as given.
+     */
+    static String resolve(SocBot bot, String name, Target t) {
+        validate(name, t);
+
+        Targets targets = Tracking.getTargets(bot);
+
+        if (targets == null) {
+            return name;
+        }
+
+        return targets.resolve(bot, name);
+    }
+
+    /**
+     * Add the PRIVMSG lines for a message, split so each one fits once the
+     * server adds our hostmask. Source is from MessageSplitter.sourceLength.
+     */
+    static void addMessage(List<String> lines, int source, String target,
+            String message, boolean action) {
+        addMessage(lines, source, target, message, action, null);
+    }
+
+    /**
+     * As above, reusing splits of the same message from the given map,
+     * keyed by the length they were split to.
+     */
+    static void addMessage(List<String> lines, int source, String target,
+            String message, boolean action, Map<Integer, List<String>> splits) {
+        String prefix = "PRIVMSG " + target + " :";
+        int limit = MessageSplitter.limit(source, "PRIVMSG", target);
+
+        if (action) {
+            // Room for the \u0001ACTION and closing \u0001.
+            limit -= 9;
+        }
+
+        List<String> parts = splits == null ? null : splits.get(limit);
+
+        if (parts == null) {
+            parts = MessageSplitter.split(message, limit);
+
+            if (splits != null) {
+                splits.put(limit, parts);
+            }
+        }
+
+        for (String part : parts) {
+            if (action) {
+                lines.add(prefix + "\u0001ACTION " + part + "\u0001");
+            } else {
+                lines.add(prefix + part);
+            }
+        }
+    }
+
+    /**
+     * Add the lines sending a message to several targets, packed into as
+     * few comma separated PRIVMSGs as the bot's server allows.
+     */
+    static void addPacked(List<String> lines, SocBot bot, Collection<String> targets,
+            String message, boolean action, Map<Integer, List<String>> splits) {
+        int source = MessageSplitter.sourceLength(bot);
+        ServerSupport support = Tracking.getSupport(bot);
+        int max = support == null ? 1 : support.getTargetLimit("PRIVMSG");
+
+        StringBuilder packed = new StringBuilder();
+        int count = 0;
+
+        for (String target : targets) {
+            if (count > 0 && (count >= max
+                    || packed.length() + 1 + target.length() > MAX_TARGETS_LENGTH)) {
+                addMessage(lines, source, packed.toString(), message, action, splits);
+                packed.setLength(0);
+                count = 0;
+            }
+
+            if (count > 0) {
+                packed.append(',');
+            }
+
+            packed.append(target);
+            count++;
+        }
+
+        if (count > 0) {
+            addMessage(lines, source, packed.toString(), message, action, splits);
+        }
+    }
+
+    /**
+     * Stored metadata for a user or channel that isn't in memory yet, such
+     * as values from before a reconnect.
+     */
+    static Map<String, Mixed> storedMeta(SocBot bot, char type, String name,
+            Map<String, Object> current, Target t) {
+        MetaStore store = Tracking.getMetaStore();
+
+        if (store == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Mixed> retn = new HashMap<String, Mixed>();
+
+        for (Map.Entry<String, String> entry : store.get(bot.getID(), type, name).entrySet()) {
+            if (current.containsKey(entry.getKey())) {
+                continue;
+            }
+
+            try {
+                retn.put(entry.getKey(), Construct.json_decode(entry.getValue(), t));
+            } catch (Exception e) {
+                Utils.log("CHIRC", "Skipping unreadable metadata " + entry.getKey() 
+                        + " for " + name + ": " + e.getMessage(), t);
+            }
+        }
+
+        return retn;
+    }
+
+    static void storeMeta(SocBot bot, char type, String name, String key, Mixed value, Target t) {
+        MetaStore store = Tracking.getMetaStore();
+
+        if (store == null) {
+            return;
+        }
+
+        try {
+            if (value == null) {
+                store.remove(bot.getID(), type, name, key);
+            } else {
+                String json;
+
+                try {
+                    json = Construct.json_encode(value, t);
+                } catch (Exception e) {
+                    throw new CREFormatException("That value can't be stored: " + e.getMessage(), t);
+                }
+
+                store.set(bot.getID(), type, name, key, json);
+            }
+        } catch (IOException e) {
+            throw new CREIOException("Couldn't store metadata: " + e.getMessage(), t);
+        }
+    }
+
+    static CArray getArray(Mixed value, String function, int arg, Target t) {
+        if (!(value instanceof CArray)) {
+            throw new CRECastException(function + " expects an array to be"
+                    + " sent as argument " + arg, t);
+        }
+
+        return (CArray) value;
+    }
+
     @api
     public static class irc_create extends IrcFunc {
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_create:" + flatten(args), t);
+            verbose("CHIRC", "irc_create", args, t);
 
             SocBot bot = Tracking.create(args[0].val());
 
@@ -107,10 +343,9 @@ public class Functions {
     @api
     public static class irc_strip_color extends IrcFunc {
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_strip_color:" + flatten(args), t);
+            verbose("CHIRC", "irc_strip_color", args, t);
 
-            String out = Colors.removeAll(args[0].val());
-            out = Styles.removeAll(out);
+            String out = ColorTranslator.stripIrc(args[0].val());
 
             return new CString(out, t);
         }
@@ -130,14 +365,24 @@ public class Functions {
 
     @api
     public static class irc_send_raw extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{
+                CRENotFoundException.class, CREIOException.class};
+        }
+
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_send_raw:" + flatten(args), t);
+            verbose("CHIRC", "irc_send_raw", args, t);
 
             SocBot bot = Tracking.getConnected(args[0].val(), t);
 
             String line = args[1].val();
 
-            bot.sendLine(line);
+            if (SendQueue.isControl(line)) {
+                enqueuePriority(bot, line, t);
+            } else {
+                enqueue(bot, line, t);
+            }
 
             return CNull.NULL;
         }
@@ -151,14 +396,123 @@ public class Functions {
         }
 
         public String docs() {
-            return "void {id, line} Send a raw IRC line. Consult the IRC RFC for details.";
+            return "void {id, line} Send a raw IRC line. Consult the IRC RFC for details."
+                    + " Lines are queued and sent subject to flood control, except for"
+                    + " control lines such as PONG, QUIT and NICK, which skip the queue.";
+        }
+    }
+
+    @api
+    public static class irc_send_raw_batch extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{
+                CRENotFoundException.class, CREIOException.class, CRECastException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            verbose("CHIRC", "irc_send_raw_batch", args, t);
+
+            SocBot bot = Tracking.getConnected(args[0].val(), t);
+            CArray array = getArray(args[1], getName(), 2, t);
+            List<String> controls = new ArrayList<String>();
+            List<String> lines = new ArrayList<String>((int) array.size());
+
+            for (Mixed value : array) {
+                String line = value.val();
+
+                // Only control lines ahead of all chat can skip the queue
+                // without changing the order of the batch.
+                if (lines.isEmpty() && SendQueue.isControl(line)) {
+                    controls.add(line);
+                } else {
+                    lines.add(line);
+                }
+            }
+
+            enqueueAll(bot, controls, lines, t);
+
+            return CNull.NULL;
+        }
+
+        public String getName() {
+            return "irc_send_raw_batch";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{2};
+        }
+
+        public String docs() {
+            return "void {id, lines} Send an array of raw IRC lines, queued in one go."
+                    + " Either all of the lines fit in the send queue, or none are"
+                    + " sent. Lines are sent in order; control lines at the start of"
+                    + " the batch skip the queue, as with irc_send_raw.";
+        }
+    }
+
+    @api
+    public static class irc_msg_lines extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{
+                CRENotFoundException.class, CREIOException.class, CRECastException.class,
+                CREFormatException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            verbose("CHIRC", "irc_msg_lines", args, t);
+
+            SocBot bot = Tracking.getConnected(args[0].val(), t);
+            List<String> lines = new ArrayList<String>();
+
+            int source = MessageSplitter.sourceLength(bot);
+
+            if (args.length == 3) {
+                String target = resolve(bot, args[1].val(), t);
+
+                for (Mixed message : getArray(args[2], getName(), 3, t)) {
+                    addMessage(lines, source, target, message.val(), false);
+                }
+            } else {
+                for (Mixed value : getArray(args[1], getName(), 2, t)) {
+                    if (!(value instanceof CArray) || ((CArray) value).size() != 2) {
+                        throw new CRECastException(getName() + " expects each pair"
+                                + " to be an array of target and message", t);
+                    }
+
+                    CArray pair = (CArray) value;
+                    String target = resolve(bot, pair.get(0, t).val(), t);
+
+                    addMessage(lines, source, target, pair.get(1, t).val(), false);
+                }
+            }
+
+            enqueueAll(bot, lines, t);
+
+            return CNull.NULL;
+        }
+
+        public String getName() {
+            return "irc_msg_lines";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{2, 3};
+        }
+
+        public String docs() {
+            return "void {id, target, messages | id, pairs} Send several messages at once,"
+                    + " either an array of messages to one target, or an array of"
+                    + " array(target, message) pairs. The messages are queued in one go."
+                    + " Either all of them fit in the send queue, or none are sent.";
         }
     }
 
     @api
     public static class irc_destroy extends IrcFunc {
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_destroy:" + flatten(args), t);
+            verbose("CHIRC", "irc_destroy", args, t);
 
             Tracking.destroy(args[0].val(), t);
 
@@ -189,7 +543,7 @@ public class Functions {
         }
 
         public Mixed exec(final Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_connect:" + flatten(args), t);
+            verbose("CHIRC", "irc_connect", args, t);
 
             final SocBot bot = Tracking.get(args[0].val(), t);
 
@@ -198,6 +552,8 @@ public class Functions {
             final int port;
             final String password;
             boolean async = true;
+            Reconnector.Policy reconnect = null;
+            List<String> caps = Collections.emptyList();
 
             if (args.length >= 4) {
                 if (!(args[3] instanceof CArray)
@@ -212,207 +568,938 @@ public class Functions {
                     bot.setRealname(arr.get("realname", t).val());
                 }
 
-                if (arr.containsKey("username")) {
-                    bot.setUsername(arr.get("username", t).val());
-                }
+                if (arr.containsKey("username")) {
+                    bot.setUsername(arr.get("username", t).val());
+                }
+
+                if (arr.containsKey("port")) {
+                    long iport = Static.getInt(arr.get("port", t), t);
+
+                    if (iport < 1 || iport > 65535) {
+                        throw new CRERangeException(getName() + " expects an"
+                                + " integer between 1 and 65535 to be sent as port"
+                                + " in the fourth argument", t);
+                    }
+
+                    port = (int) iport;
+                } else {
+                    port = 6667;
+                }
+
+                if (arr.containsKey("password")) {
+                    password = arr.get("password", t).val();
+                } else {
+                    password = null;
+                }
+
+                if (arr.containsKey("runsync")) {
+                    if (!(arr.get("runsync", t) instanceof CBoolean)) {
+                        throw new CRECastException(getName() + " expects a"
+                                + " boolean to be sent as runsync in the fourth"
+                                + " argument", t);
+                    }
+
+                    async = !((CBoolean) arr.get("runsync", t)).getBoolean();
+                }
+
+                if (arr.containsKey("floodburst") || arr.containsKey("floodrate")) {
+                    long burst = SendQueue.DEFAULT_BURST;
+                    long rate = SendQueue.DEFAULT_REFILL;
+
+                    if (arr.containsKey("floodburst")) {
+                        burst = Static.getInt(arr.get("floodburst", t), t);
+                    }
+
+                    if (arr.containsKey("floodrate")) {
+                        rate = Static.getInt(arr.get("floodrate", t), t);
+                    }
+
+                    if (burst < 1 || rate < 0) {
+                        throw new CRERangeException(getName() + " expects floodburst"
+                                + " to be at least 1 and floodrate to be at least 0"
+                                + " in the fourth argument", t);
+                    }
+
+                    getQueue(bot, t).setFloodControl((int) burst, rate);
+                }
+
+                if (arr.containsKey("reconnect")) {
+                    reconnect = getPolicy(arr.get("reconnect", t), password, t);
+                }
+
+                if (arr.containsKey("caps")) {
+                    caps = getCaps(arr.get("caps", t), t);
+                }
+            } else {
+                port = 6667;
+                password = null;
+            }
+
+            bot.setNickname(nick);
+
+            Capabilities negotiated = Tracking.getCapabilities(bot);
+
+            if (negotiated != null) {
+                negotiated.setWanted(caps);
+            }
+
+            if (reconnect != null) {
+                reconnect.addServer(host, port);
+
+                if (args.length >= 4) {
+                    addFallbacks(reconnect, (CArray) args[3], port, t);
+                }
+
+                Tracking.getReconnector().setPolicy(bot, reconnect);
+            } else {
+                Tracking.getReconnector().clear(bot);
+            }
+
+            Runnable doConnect = Connector.attempt(bot, host, port, password);
+
+            try {
+                Tracking.getConnector().connect(bot, doConnect, async);
+            } catch (RejectedExecutionException e) {
+                throw new CREIOException("Too many connection attempts are pending!", t);
+            }
+
+            return CNull.NULL;
+        }
+
+        private List<String> getCaps(Mixed value, Target t) {
+            if (value instanceof CBoolean) {
+                return ((CBoolean) value).getBoolean() ? Capabilities.DEFAULT
+                        : Collections.<String>emptyList();
+            }
+
+            List<String> caps = new ArrayList<String>();
+
+            for (Mixed cap : getArray(value, getName(), 4, t)) {
+                caps.add(cap.val());
+            }
+
+            return caps;
+        }
+
+        private Reconnector.Policy getPolicy(Mixed value, String password, Target t) {
+            if (value instanceof CBoolean) {
+                if (!((CBoolean) value).getBoolean()) {
+                    return null;
+                }
+
+                return new Reconnector.Policy(Reconnector.DEFAULT_DELAY,
+                        Reconnector.DEFAULT_MAX_DELAY, password);
+            }
+
+            if (!(value instanceof CArray) || !((CArray) value).inAssociativeMode()) {
+                throw new CRECastException(getName() + " expects reconnect to be"
+                        + " a boolean or an associative array", t);
+            }
+
+            CArray arr = (CArray) value;
+            long delay = Reconnector.DEFAULT_DELAY;
+            long max = Reconnector.DEFAULT_MAX_DELAY;
+
+            if (arr.containsKey("delay")) {
+                delay = Static.getInt(arr.get("delay", t), t);
+            }
+
+            if (arr.containsKey("maxdelay")) {
+                max = Static.getInt(arr.get("maxdelay", t), t);
+            }
+
+            if (delay < 1 || max < delay) {
+                throw new CRERangeException(getName() + " expects reconnect's delay"
+                        + " to be at least 1, and maxdelay to be at least delay", t);
+            }
+
+            return new Reconnector.Policy(delay, max, password);
+        }
+
+        private void addFallbacks(Reconnector.Policy policy, CArray options, int port, Target t) {
+            if (!(options.get("reconnect", t) instanceof CArray)) {
+                return;
+            }
+
+            CArray reconnect = (CArray) options.get("reconnect", t);
+
+            if (!reconnect.containsKey("servers")) {
+                return;
+            }
+
+            if (!(reconnect.get("servers", t) instanceof CArray)) {
+                throw new CRECastException(getName() + " expects reconnect's servers"
+                        + " to be an array", t);
+            }
+
+            for (Mixed server : (CArray) reconnect.get("servers", t)) {
+                if (server instanceof CArray) {
+                    CArray arr = (CArray) server;
+                    long iport = port;
+
+                    if (arr.containsKey("port")) {
+                        iport = Static.getInt(arr.get("port", t), t);
+                    }
+
+                    if (iport < 1 || iport > 65535) {
+                        throw new CRERangeException(getName() + " expects an"
+                                + " integer between 1 and 65535 to be sent as port"
+                                + " for each reconnect server", t);
+                    }
+
+                    policy.addServer(arr.get("host", t).val(), (int) iport);
+                } else {
+                    policy.addServer(server.val(), port);
+                }
+            }
+        }
+
+        public String getName() {
+            return "irc_connect";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{3, 4};
+        }
+
+        public String docs() {
+            return "void {id, nick, host[, array]} Connect to host using nickname nick."
+                    + " If a connection attempt for this bot is already pending, this does nothing."
+                    + " The array may contain realname, username, port, password, runsync,"
+                    + " floodburst (lines that may be sent back to back, default "
+                    + SendQueue.DEFAULT_BURST + ") and floodrate (milliseconds to earn"
+                    + " another line, default " + SendQueue.DEFAULT_REFILL + ") and reconnect."
+                    + " reconnect may be true, or an array of delay (milliseconds before the"
+                    + " first retry, default " + Reconnector.DEFAULT_DELAY + "), maxdelay"
+                    + " (default " + Reconnector.DEFAULT_MAX_DELAY + ") and servers (an array"
+                    + " of hosts, or of arrays with host and port, to rotate through along"
+                    + " with host). When set, a bot whose connection fails or drops uncleanly"
+                    + " retries on its own, doubling the delay each time with some jitter,"
+                    + " and fires irc_reconnecting. Connecting without it turns it off."
+                    + " caps may be true, to ask for " + Capabilities.DEFAULT + ", or an"
+                    + " array of IRCv3 capabilities to ask the server for; those it offers"
+                    + " are negotiated before registration, and on each reconnect.";
+        }
+    }
+
+    @api
+    public static class irc_join extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{
+                CRENotFoundException.class, CREIOException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            verbose("CHIRC", "irc_join", args, t);
+
+            SocBot bot = Tracking.getConnected(args[0].val(), t);
+
+            String channel = args[1].val();
+
+            if (args.length == 3) {
+                enqueuePriority(bot, "JOIN " + channel + " " + args[2].val(), t);
+            } else {
+                enqueuePriority(bot, "JOIN " + channel, t);
+            }
+
+            return CNull.NULL;
+        }
+
+        public String getName() {
+            return "irc_join";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{2, 3};
+        }
+
+        public String docs() {
+            return "void {id, channel[, password]} Join a channel, optionally using a password.";
+        }
+    }
+
+    @api
+    public static class irc_part extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{
+                CRENotFoundException.class, CREIOException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            verbose("CHIRC", "irc_part", args, t);
+
+            SocBot bot = Tracking.getConnected(args[0].val(), t);
+
+            String channel = args[1].val();
+
+            if (args.length == 3) {
+                enqueuePriority(bot, "PART " + channel + " :" + args[2].val(), t);
+            } else {
+                enqueuePriority(bot, "PART " + channel, t);
+            }
+
+            return CNull.NULL;
+        }
+
+        public String getName() {
+            return "irc_part";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{2, 3};
+        }
+
+        public String docs() {
+            return "void {id, channel[, password]} Leave a channel, optionally using a message.";
+        }
+    }
+
+    @api
+    public static class irc_quit extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{
+                CRENotFoundException.class, CREIOException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            verbose("CHIRC", "irc_quit", args, t);
+
+            SocBot bot = Tracking.getConnected(args[0].val(), t);
+
+            if (args.length == 2) {
+                enqueuePriority(bot, "QUIT :" + args[1].val(), t);
+            } else {
+                enqueuePriority(bot, "QUIT", t);
+            }
+
+            return CNull.NULL;
+        }
+
+        public String getName() {
+            return "irc_quit";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{1, 2};
+        }
+
+        public String docs() {
+            return "void {id, channel[, password]} Quit the server, optionally using a message.";
+        }
+    }
+
+    @api
+    public static class irc_msg extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{
+                CRENotFoundException.class, CREIOException.class, CREFormatException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            verbose("CHIRC", "irc_msg", args, t);
+
+            SocBot bot = Tracking.getConnected(args[0].val(), t);
+
+            String channel = args[1].val();
+            String message = args[2].val();
+            List<String> lines = new ArrayList<String>(1);
+
+            addMessage(lines, MessageSplitter.sourceLength(bot), resolve(bot, channel, t), message, false);
+            enqueueAll(bot, lines, t);
+
+            return CNull.NULL;
+        }
+
+        public String getName() {
+            return "irc_msg";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{3};
+        }
+
+        public String docs() {
+            return "void {id, target, message} Send a message to target. The message is"
+                    + " queued and sent subject to the bot's flood control. Messages too"
+                    + " long for one line are split at spaces, keeping their formatting,"
+                    + " and each line break starts a new line."
+                    + " Targets the bot doesn't know, such as users it shares no channel"
+                    + " with, are sent to as given.";
+        }
+    }
+
+    @api
+    public static class irc_action extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{
+                CRENotFoundException.class, CREIOException.class, CREFormatException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            verbose("CHIRC", "irc_action", args, t);
+
+            SocBot bot = Tracking.getConnected(args[0].val(), t);
+
+            String channel = args[1].val();
+            String message = args[2].val();
+            List<String> lines = new ArrayList<String>(1);
+
+            addMessage(lines, MessageSplitter.sourceLength(bot), resolve(bot, channel, t), message, true);
+            enqueueAll(bot, lines, t);
+
+            return CNull.NULL;
+        }
+
+        public String getName() {
+            return "irc_action";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{3};
+        }
+
+        public String docs() {
+            return "void {id, target, message} Send an action to target. The action is"
+                    + " queued and sent subject to the bot's flood control. Actions too"
+                    + " long for one line are split at spaces, keeping their formatting,"
+                    + " and each line break starts a new line."
+                    + " Targets the bot doesn't know, such as users it shares no channel"
+                    + " with, are sent to as given.";
+        }
+    }
+
+    @api
+    public static class irc_broadcast extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{
+                CRENotFoundException.class, CRECastException.class, CREFormatException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            verbose("CHIRC", "irc_broadcast", args, t);
+
+            Collection<SocBot> bots;
+
+            if (args[0] instanceof CNull) {
+                bots = Tracking.getBots();
+            } else {
+                bots = new ArrayList<SocBot>();
+
+                for (Mixed id : getArray(args[0], getName(), 1, t)) {
+                    bots.add(Tracking.get(id.val(), t));
+                }
+            }
+
+            List<String> names = new ArrayList<String>();
+            List<Glob> masks = new ArrayList<Glob>();
+
+            if (!(args[1] instanceof CNull)) {
+                for (Mixed value : getArray(args[1], getName(), 2, t)) {
+                    String name = value.val();
+
+                    if (name.indexOf('*') != -1 || name.indexOf('?') != -1) {
+                        masks.add(new Glob(name));
+                    } else {
+                        // Up front, so a bad name can't leave the broadcast half sent.
+                        validate(name, t);
+                        names.add(name);
+                    }
+                }
+            }
+
+            String message = args[2].val();
+            boolean action = false;
+
+            if (args.length == 4) {
+                CArray options = getArray(args[3], getName(), 4, t);
+
+                if (options.containsKey("action")) {
+                    action = Static.getBoolean(options.get("action", t), t);
+                }
+
+                if (options.containsKey("mccolors")
+                        && Static.getBoolean(options.get("mccolors", t), t)) {
+                    message = ColorTranslator.mcToIrc(message);
+                }
+            }
+
+            // Shared by every bot, so the message is only split once per length.
+            Map<Integer, List<String>> splits = new HashMap<Integer, List<String>>();
+            int sent = 0;
+
+            for (SocBot bot : bots) {
+                if (!bot.isConnected()) {
+                    continue;
+                }
+
+                Set<String> targets = new LinkedHashSet<String>();
+
+                if (args[1] instanceof CNull || !masks.isEmpty()) {
+                    for (Channel chan : bot.getChannels()) {
+                        if (args[1] instanceof CNull || matches(masks, chan.getName())) {
+                            targets.add(chan.getName());
+                        }
+                    }
+                }
+
+                for (String name : names) {
+                    targets.add(resolve(bot, name, t));
+                }
+
+                List<String> lines = new ArrayList<String>();
+                addPacked(lines, bot, targets, message, action, splits);
+
+                try {
+                    enqueueAll(bot, lines, t);
+                    sent += targets.size();
+                } catch (CREIOException e) {
+                    Utils.log("CHIRC", "Skipping " + bot.getID() + " in irc_broadcast: " 
+                            + e.getMessage(), t);
+                }
+            }
+
+            return new CInt(sent, t);
+        }
+
+        private static boolean matches(List<Glob> masks, String name) {
+            for (Glob mask : masks) {
+                if (mask.matches(name)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        public String getName() {
+            return "irc_broadcast";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{3, 4};
+        }
+
+        public String docs() {
+            return "int {ids, targets, message[, options]} Send a message from several bots"
+                    + " at once. Ids is an array of bot ids, or null for every bot. Targets is"
+                    + " an array of channels or users, where names with * or ? match the"
+                    + " channels each bot is in, or null for all of them. Targets are packed"
+                    + " into as few lines as each server's TARGMAX allows. Options can contain"
+                    + " action, to send an action instead, and mccolors, to convert MC colors"
+                    + " first. Bots that aren't connected, or whose send queue is full, are"
+                    + " skipped. Returns how many targets the message was queued for.";
+        }
+    }
+
+    @api
+    public static class irc_relay extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{
+                CRENotFoundException.class, CRECastException.class,
+                CRERangeException.class, CREFormatException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            verbose("CHIRC", "irc_relay", args, t);
+
+            SocBot bot = Tracking.get(args[0].val(), t);
+            String name = args[1].val();
+            CArray options = getArray(args[2], getName(), 3, t);
+
+            if (!options.containsKey("channels")) {
+                throw new CRECastException(getName() + " expects a channels array in its options", t);
+            }
+
+            List<String> channels = new ArrayList<String>();
+
+            for (Mixed chan : getArray(options.get("channels", t), getName(), 3, t)) {
+                channels.add(resolve(bot, chan.val(), t));
+            }
+
+            String format = Relay.DEFAULT_FORMAT;
+            boolean mccolors = true;
+            int rate = 0;
+            long window = Relay.DEFAULT_WINDOW;
+            CClosure veto = null;
+
+            if (options.containsKey("format")) {
+                format = options.get("format", t).val();
+            }
+
+            if (options.containsKey("mccolors")) {
+                mccolors = Static.getBoolean(options.get("mccolors", t), t);
+            }
+
+            if (options.containsKey("rate")) {
+                rate = (int) Static.getInt(options.get("rate", t), t);
+
+                if (rate < 0) {
+                    throw new CRERangeException(getName() + " expects rate to be 0 or more", t);
+                }
+            }
+
+            if (options.containsKey("window")) {
+                window = Static.getInt(options.get("window", t), t);
+
+                if (window < 0) {
+                    throw new CRERangeException(getName() + " expects window to be 0 or more", t);
+                }
+            }
+
+            if (options.containsKey("veto")) {
+                Mixed value = options.get("veto", t);
+
+                if (value instanceof CClosure) {
+                    veto = (CClosure) value;
+                } else if (!(value instanceof CNull)) {
+                    throw new CRECastException(getName() + " expects veto to be a closure", t);
+                }
+            }
+
+            ConcurrentMap<String, Relay> relays = Tracking.getRelays(bot);
+
+            if (relays == null) {
+                throw new CRENotFoundException("That id doesn't exist!", t);
+            }
+
+            Relay old = relays.put(name, new Relay(bot, name, channels, format,
+                    mccolors, rate, window, veto));
+
+            if (old != null) {
+                old.flush();
+                old.remove();
+            }
+
+            return CNull.NULL;
+        }
+
+        public String getName() {
+            return "irc_relay";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{3};
+        }
+
+        public String docs() {
+            return "void {id, name, options} Set up a named relay from Minecraft chat to"
+                    + " IRC, replacing any with the same name. Options are channels, an"
+                    + " array of channels to send to; format, where %player% and %message%"
+                    + " are filled in (default \"" + Relay.DEFAULT_FORMAT + "\"); mccolors,"
+                    + " whether to convert MC colors (default true); rate, the most lines"
+                    + " a second to relay, or 0 for no limit (default 0); window, how many"
+                    + " milliseconds to gather lines before queueing them together"
+                    + " (default " + Relay.DEFAULT_WINDOW + "); and veto, a closure given"
+                    + " the player and message that can return false to drop the line or"
+                    + " a string to relay instead. Feed it with irc_relay_chat.";
+        }
+    }
+
+    @api
+    public static class irc_relay_chat extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{CRENotFoundException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            // Called for every chat line, so skip the verbose logging.
+            Relay relay = getRelay(Tracking.get(args[0].val(), t), args[1].val(), t);
+
+            return CBoolean.get(relay.chat(args[2].val(), args[3].val(), t));
+        }
+
+        public String getName() {
+            return "irc_relay_chat";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{4};
+        }
+
+        public String docs() {
+            return "boolean {id, name, player, message} Relay a chat line through the named"
+                    + " relay, usually from a player_chat bind. Returns false if it was"
+                    + " vetoed or over the relay's rate.";
+        }
+    }
+
+    @api
+    public static class irc_del_relay extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{CRENotFoundException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            verbose("CHIRC", "irc_del_relay", args, t);
+
+            SocBot bot = Tracking.get(args[0].val(), t);
+            Relay relay = getRelay(bot, args[1].val(), t);
+
+            Tracking.getRelays(bot).remove(relay.getName(), relay);
+            relay.flush();
+            relay.remove();
+
+            return CNull.NULL;
+        }
+
+        public String getName() {
+            return "irc_del_relay";
+        }
+
+        public Integer[] numArgs() {
+            return new Integer[]{2};
+        }
+
+        public String docs() {
+            return "void {id, name} Stop the named relay, sending anything it's holding.";
+        }
+    }
+
+    @api
+    public static class irc_relay_channel extends IrcFunc {
+        @Override
+        public Class<? extends CREThrowable>[] thrown() {
+            return new Class[]{
+                CRENotFoundException.class, CRECastException.class, CREFormatException.class};
+        }
+
+        public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+            verbose("CHIRC", "irc_relay_channel", args, t);
 
-                if (arr.containsKey("port")) {
-                    long iport = Static.getInt(arr.get("port", t), t);
+            SocBot bot = Tracking.get(args[0].val(), t);
+            String channel = resolve(bot, args[1].val(), t);
+            String format = ChannelRelay.DEFAULT_FORMAT;
+            String action = ChannelRelay.DEFAULT_ACTION;
+            String permission = null;
+            boolean mccolors = true;
+            boolean events = false;
+            List<String> skip = new ArrayList<String>();
 
-                    if (iport < 1 || iport > 65535) {
-                        throw new CRERangeException(getName() + " expects an"
-                                + " integer between 1 and 65535 to be sent as port"
-                                + " in the fourth argument", t);
-                    }
+            if (args.length == 3) {
+                CArray options = getArray(args[2], getName(), 3, t);
 
-                    port = (int) iport;
-                } else {
-                    port = 6667;
+                if (options.containsKey("format")) {
+                    format = options.get("format", t).val();
                 }
 
-                if (arr.containsKey("password")) {
-                    password = arr.get("password", t).val();
-                } else {
-                    password = null;
+                if (options.containsKey("action")) {
+                    action = options.get("action", t).val();
                 }
 
-                if (arr.containsKey("runsync")) {
-                    if (!(arr.get("runsync", t) instanceof CBoolean)) {
-                        throw new CRECastException(getName() + " expects a"
-                                + " boolean to be sent as runsync in the fourth"
-                                + " argument", t);
-                    }
+                if (options.containsKey("permission")
+                        && !(options.get("permission", t) instanceof CNull)) {
+                    permission = options.get("permission", t).val();
+                }
 
-                    async = !((CBoolean) arr.get("runsync", t)).getBoolean();
+                if (options.containsKey("mccolors")) {
+                    mccolors = Static.getBoolean(options.get("mccolors", t), t);
                 }
-            } else {
-                port = 6667;
-                password = null;
-            }
 
-            bot.setNickname(nick);
+                if (options.containsKey("events")) {
+                    events = Static.getBoolean(options.get("events", t), t);
+                }
 
-            final Runnable doConnect = new Runnable() {
-                public void run() {
-                    try {
-                        bot.connect(host, port, password);
-                    } catch (IOException e) {
-                        final ConnectionException event = new ConnectionException(e, bot);
-
-                        try {
-                            StaticLayer.GetConvertor().runOnMainThreadAndWait(new Callable<Object>() {
-                                public Object call() {
-                                    EventUtils.TriggerListener(Driver.EXTENSION, "irc_connection_exception", event);
-                                    return null;
-                                }
-                            });
-                        } catch (Exception ex) {
-                            Logger.getLogger(Events.class.getName()).log(Level.SEVERE, null, ex);
+                if (options.containsKey("skip")) {
+                    for (Mixed prefix : getArray(options.get("skip", t), getName(), 3, t)) {
+                        if (!prefix.val().isEmpty()) {
+                            skip.add(prefix.val());
                         }
                     }
                 }
-            };
+            }
 
-            if (async) {
-                Thread th = new Thread() {
-                    @Override
-                    public void run() {
-                        doConnect.run();
-                    }
-                };
+            ConcurrentMap<String, ChannelRelay> relays = Tracking.getChannelRelays(bot);
 
-                th.start();
-            } else {
-                doConnect.run();
+            if (relays == null) {
+                throw new CRENotFoundException("That id doesn't exist!", t);
             }
 
+            relays.put(MetaStore.fold(channel), new ChannelRelay(channel, format, action,
+                    permission, mccolors, skip, events));
+
             return CNull.NULL;
         }
 
         public String getName() {
-            return "irc_connect";
+            return "irc_relay_channel";
         }
 
         public Integer[] numArgs() {
-            return new Integer[]{3, 4};
+            return new Integer[]{2, 3};
         }
 
         public String docs() {
-            return "void {id, nick, host[, array]} Connect to host using nickname nick.";
+            return "void {id, channel[, options]} Broadcast everything said in a channel to"
+                    + " the server, without firing irc_msg or irc_action for it. Options are"
+                    + " format and action, where %channel%, %nick% and %message% are filled"
+                    + " in (defaults \"" + ChannelRelay.DEFAULT_FORMAT + "\" and \""
+                    + ChannelRelay.DEFAULT_ACTION + "\"); permission, to only broadcast"
+                    + " to players with it; mccolors, whether to convert IRC colors"
+                    + " (default true); skip, an array of prefixes such as command"
+                    + " triggers whose messages aren't relayed and go to binds as usual;"
+                    + " and events, to still fire the events for relayed messages"
+                    + " (default false).";
         }
     }
 
     @api
-    public static class irc_join extends IrcFunc {
+    public static class irc_del_channel_relay extends IrcFunc {
         @Override
         public Class<? extends CREThrowable>[] thrown() {
-            return new Class[]{
-                CRENotFoundException.class, CREIOException.class};
+            return new Class[]{CRENotFoundException.class};
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_join:" + flatten(args), t);
-
-            SocBot bot = Tracking.getConnected(args[0].val(), t);
+            verbose("CHIRC", "irc_del_channel_relay", args, t);
 
-            String channel = args[1].val();
+            SocBot bot = Tracking.get(args[0].val(), t);
+            ConcurrentMap<String, ChannelRelay> relays = Tracking.getChannelRelays(bot);
 
-            if (args.length == 3) {
-                bot.join(channel, args[2].val());
-            } else {
-                bot.join(channel);
+            if (relays == null || relays.remove(MetaStore.fold(args[1].val())) == null) {
+                throw new CRENotFoundException(args[1].val() + " isn't being relayed!", t);
             }
 
             return CNull.NULL;
         }
 
         public String getName() {
-            return "irc_join";
+            return "irc_del_channel_relay";
         }
 
         public Integer[] numArgs() {
-            return new Integer[]{2, 3};
+            return new Integer[]{2};
         }
 
         public String docs() {
-            return "void {id, channel[, password]} Join a channel, optionally using a password.";
+            return "void {id, channel} Stop relaying a channel to the server.";
         }
     }
 
     @api
-    public static class irc_part extends IrcFunc {
+    public static class irc_register_command extends IrcFunc {
         @Override
         public Class<? extends CREThrowable>[] thrown() {
             return new Class[]{
-                CRENotFoundException.class, CREIOException.class};
+                CRENotFoundException.class, CRECastException.class, CREFormatException.class};
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_part:" + flatten(args), t);
+            verbose("CHIRC", "irc_register_command", args, t);
 
-            SocBot bot = Tracking.getConnected(args[0].val(), t);
+            SocBot bot = Tracking.get(args[0].val(), t);
+            String prefix = args[1].val();
+            String trigger = args[2].val();
 
-            String channel = args[1].val();
+            if (trigger.isEmpty() || trigger.indexOf(' ') != -1) {
+                throw new CREFormatException(getName() + " expects a trigger without spaces", t);
+            }
 
-            if (args.length == 3) {
-                bot.part(channel, args[2].val());
-            } else {
-                bot.part(channel);
+            if (!(args[3] instanceof CClosure)) {
+                throw new CRECastException(getName() + " expects a closure as the fourth argument", t);
+            }
+
+            List<String> nicks = null;
+            List<String> hostmasks = null;
+            boolean consume = true;
+
+            if (args.length == 5) {
+                CArray options = getArray(args[4], getName(), 5, t);
+
+                if (options.containsKey("nicks") && !(options.get("nicks", t) instanceof CNull)) {
+                    nicks = new ArrayList<String>();
+
+                    for (Mixed nick : getArray(options.get("nicks", t), getName(), 5, t)) {
+                        nicks.add(nick.val());
+                    }
+                }
+
+                if (options.containsKey("hostmasks") && !(options.get("hostmasks", t) instanceof CNull)) {
+                    hostmasks = new ArrayList<String>();
+
+                    for (Mixed mask : getArray(options.get("hostmasks", t), getName(), 5, t)) {
+                        hostmasks.add(mask.val());
+                    }
+                }
+
+                if (options.containsKey("consume")) {
+                    consume = Static.getBoolean(options.get("consume", t), t);
+                }
+            }
+
+            Commands commands = Tracking.getCommands(bot);
+
+            if (commands == null) {
+                throw new CRENotFoundException("That id doesn't exist!", t);
             }
 
+            commands.register(new Commands.Command(prefix, trigger, (CClosure) args[3],
+                    nicks, hostmasks, consume));
+
             return CNull.NULL;
         }
 
         public String getName() {
-            return "irc_part";
+            return "irc_register_command";
         }
 
         public Integer[] numArgs() {
-            return new Integer[]{2, 3};
+            return new Integer[]{4, 5};
         }
 
         public String docs() {
-            return "void {id, channel[, password]} Leave a channel, optionally using a message.";
+            return "void {id, prefix, trigger, closure[, options]} Run a closure whenever"
+                    + " someone says prefix followed by trigger, such as !help, in a channel"
+                    + " or in private. Triggers are case insensitive. The closure is given an"
+                    + " array of id, who, hostmask, target, prefix, trigger, args (everything"
+                    + " after the trigger) and argv (args split on spaces); whatever it"
+                    + " returns is said back to the channel, or to the sender in private."
+                    + " Options are nicks and hostmasks, arrays of who may use it, where"
+                    + " hostmasks can contain * and ?; and consume, whether commands skip"
+                    + " irc_msg (default true). Messages from anyone not allowed fire"
+                    + " irc_msg as usual.";
         }
     }
 
     @api
-    public static class irc_quit extends IrcFunc {
+    public static class irc_unregister_command extends IrcFunc {
         @Override
         public Class<? extends CREThrowable>[] thrown() {
-            return new Class[]{
-                CRENotFoundException.class, CREIOException.class};
+            return new Class[]{CRENotFoundException.class};
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_quit:" + flatten(args), t);
+            verbose("CHIRC", "irc_unregister_command", args, t);
 
-            SocBot bot = Tracking.getConnected(args[0].val(), t);
-
-            if (args.length == 2) {
-                bot.quit(args[1].val());
-            } else {
-                bot.quit();
-            }
+            Commands commands = Tracking.getCommands(Tracking.get(args[0].val(), t));
 
-            return CNull.NULL;
+            return CBoolean.get(commands != null && commands.unregister(args[1].val(), args[2].val()));
         }
 
         public String getName() {
-            return "irc_quit";
+            return "irc_unregister_command";
         }
 
         public Integer[] numArgs() {
-            return new Integer[]{1, 2};
+            return new Integer[]{3};
         }
 
         public String docs() {
-            return "void {id, channel[, password]} Quit the server, optionally using a message.";
+            return "boolean {id, prefix, trigger} Remove a command registered with"
+                    + " irc_register_command. Returns false if there wasn't one.";
         }
     }
 
     @api
-    public static class irc_msg extends IrcFunc {
+    public static class irc_nick extends IrcFunc {
         @Override
         public Class<? extends CREThrowable>[] thrown() {
             return new Class[]{
@@ -420,166 +1507,343 @@ public class Functions {
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_msg:" + flatten(args), t);
+            verbose("CHIRC", "irc_nick", args, t);
 
             SocBot bot = Tracking.getConnected(args[0].val(), t);
 
-            String channel = args[1].val();
-            String message = args[2].val();
-            com.entityreborn.socbot.Target target;
-
-            if (com.entityreborn.socbot.Target.Util.isUser(channel, bot)) {
-                target = bot.getUser(channel);
-            } else {
-                target = bot.getChannel(channel);
-            }
+            String name = args[1].val();
 
-            if (target != null) {
-                target.sendMsg(message);
-            }
+            enqueuePriority(bot, "NICK " + name, t);
 
             return CNull.NULL;
         }
 
         public String getName() {
-            return "irc_msg";
+            return "irc_nick";
         }
 
         public Integer[] numArgs() {
-            return new Integer[]{3};
+            return new Integer[]{2};
         }
 
         public String docs() {
-            return "void {id, target, message} Send a message to target.";
+            return "void {id, newnick} Try for a new nickname.";
         }
     }
 
     @api
-    public static class irc_action extends IrcFunc {
+    public static class irc_channel_info extends IrcFunc {
+        private static final String[] FIELDS = {"name", "modes", "topic", "users"};
+
         @Override
         public Class<? extends CREThrowable>[] thrown() {
             return new Class[]{
-                CRENotFoundException.class, CREIOException.class};
+                CRENotFoundException.class, CREIOException.class,
+                CRECastException.class, CREFormatException.class};
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_action:" + flatten(args), t);
+            verbose("CHIRC", "irc_channel_info", args, t);
 
             SocBot bot = Tracking.getConnected(args[0].val(), t);
 
-            String channel = args[1].val();
-            String message = args[2].val();
-            com.entityreborn.socbot.Target target;
+            String chanName = args[1].val();
+            Channel chan = bot.getChannel(chanName);
 
-            if (com.entityreborn.socbot.Target.Util.isUser(channel, bot)) {
-                target = bot.getUser(channel);
-            } else {
-                target = bot.getChannel(channel);
+            if (chan == null) {
+                throw new CRENotFoundException("Not joined to that channel!", t);
             }
 
-            if (target != null) {
-                target.sendCTCP("ACTION", message);
+            if (args.length == 2) {
+                return build(chan, ChannelSnapshot.of(bot, chan), FIELDS, t);
             }
 
-            return CNull.NULL;
+            CArray array = getArray(args[2], getName(), 3, t);
+            String[] fields = new String[(int) array.size()];
+            int i = 0;
+
+            for (Mixed value : array) {
+                String field = value.val();
+
+                if (!field.equals("name") && !field.equals("modes")
+                        && !field.equals("topic") && !field.equals("users")) {
+                    throw new CREFormatException("Unknown channel field: " + field, t);
+                }
+
+                fields[i++] = field;
+            }
+
+            return build(chan, ChannelSnapshot.of(bot, chan), fields, t);
+        }
+
+        static CArray build(Channel chan, ChannelSnapshot snapshot, String[] fields, Target t) {
+            CArray retn = new CArray(t);
+
+            for (String field : fields) {
+                if (field.equals("name")) {
+                    retn.set("name", chan.getName());
+                } else if (field.equals("modes")) {
+                    retn.set("modes", chan.getModes());
+                } else if (field.equals("topic")) {
+                    retn.set("topic", chan.getTopic());
+                } else if (field.equals("users")) {
+                    retn.set("users", snapshot.getUsers(chan, t), t);
+                }
+            }
+
+            return retn;
         }
 
         public String getName() {
-            return "irc_action";
+            return "irc_channel_info";
         }
 
         public Integer[] numArgs() {
-            return new Integer[]{3};
+            return new Integer[]{2, 3};
         }
 
         public String docs() {
-            return "void {id, target, message} Send an action to target.";
+            return "array {id, channel[, fields]} Get info on a specific channel. Fields is an"
+                    + " array of the keys to include, from name, modes, topic and users, and"
+                    + " defaults to all of them. The user list behind users is cached until"
+                    + " the channel changes.";
         }
     }
 
     @api
-    public static class irc_nick extends IrcFunc {
+    public static class irc_channel_users extends IrcFunc {
+        // Status prefixes and the channel modes they stand for.
+        private static final String PREFIXES = "~&@%+";
+        private static final String PREFIX_MODES = "qaohv";
+
         @Override
         public Class<? extends CREThrowable>[] thrown() {
             return new Class[]{
-                CRENotFoundException.class, CREIOException.class};
+                CRENotFoundException.class, CREIOException.class,
+                CRECastException.class, CRERangeException.class};
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_nick:" + flatten(args), t);
+            verbose("CHIRC", "irc_channel_users", args, t);
 
             SocBot bot = Tracking.getConnected(args[0].val(), t);
+            Channel chan = bot.getChannel(args[1].val());
 
-            String name = args[1].val();
+            if (chan == null) {
+                throw new CRENotFoundException("Not joined to that channel!", t);
+            }
 
-            bot.setNickname(name);
+            String modes = null;
+            Glob nick = null;
+            Glob hostmask = null;
+            int offset = 0;
+            int limit = Integer.MAX_VALUE;
+            boolean count = false;
 
-            return CNull.NULL;
+            if (args.length == 3) {
+                CArray options = getArray(args[2], getName(), 3, t);
+
+                if (options.containsKey("modes")) {
+                    modes = modes(options.get("modes", t).val());
+                }
+
+                if (options.containsKey("nick")) {
+                    nick = new Glob(options.get("nick", t).val());
+                }
+
+                if (options.containsKey("hostmask")) {
+                    hostmask = new Glob(options.get("hostmask", t).val());
+                }
+
+                if (options.containsKey("offset")) {
+                    offset = (int) Static.getInt(options.get("offset", t), t);
+                }
+
+                if (options.containsKey("limit")) {
+                    limit = (int) Static.getInt(options.get("limit", t), t);
+                }
+
+                if (options.containsKey("count")) {
+                    count = Static.getBoolean(options.get("count", t), t);
+                }
+
+                if (offset < 0 || limit < 0) {
+                    throw new CRERangeException("Offset and limit can't be negative.", t);
+                }
+            }
+
+            CArray users = count ? null : new CArray(t);
+            int matched = 0;
+
+            for (Map.Entry<User, String> entry : chan.getUserModes().entrySet()) {
+                if (!count && matched >= offset + (long) limit) {
+                    break;
+                }
+
+                User user = entry.getKey();
+                String userModes = entry.getValue();
+
+                if (modes != null && !hasAny(userModes, modes)) {
+                    continue;
+                }
+
+                if (nick != null && !nick.matches(user.getName())) {
+                    continue;
+                }
+
+                String mask = null;
+
+                if (hostmask != null) {
+                    mask = Who.hostmask(bot, user);
+
+                    if (!hostmask.matches(mask)) {
+                        continue;
+                    }
+                }
+
+                if (!count && matched >= offset) {
+                    CArray data = new CArray(t);
+                    data.set("name", user.getName());
+                    data.set("modes", userModes);
+                    data.set("hostmask", mask != null ? mask : Who.hostmask(bot, user));
+
+                    users.push(data, t);
+                }
+
+                matched++;
+            }
+
+            if (count) {
+                return new CInt(matched, t);
+            }
+
+            return users;
+        }
+
+        /**
+         * Turn any status prefixes into the modes they stand for.
+         */
+        private static String modes(String value) {
+            StringBuilder modes = new StringBuilder(value.length());
+
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                int prefix = PREFIXES.indexOf(c);
+
+                modes.append(prefix == -1 ? c : PREFIX_MODES.charAt(prefix));
+            }
+
+            return modes.toString();
+        }
+
+        private static boolean hasAny(String userModes, String modes) {
+            if (userModes == null) {
+                return false;
+            }
+
+            for (int i = 0; i < modes.length(); i++) {
+                if (userModes.indexOf(modes.charAt(i)) != -1) {
+                    return true;
+                }
+            }
+
+            return false;
         }
 
         public String getName() {
-            return "irc_nick";
+            return "irc_channel_users";
         }
 
         public Integer[] numArgs() {
-            return new Integer[]{2};
+            return new Integer[]{2, 3};
         }
 
         public String docs() {
-            return "void {id, newnick} Try for a new nickname.";
+            return "mixed {id, channel[, options]} Find users in a channel. Options is an array"
+                    + " that can contain: modes, users with any of these modes or prefixes"
+                    + " (\"o\" or \"@\" for ops); nick and hostmask, masks using * and ?"
+                    + " matched against the nick and nick!user@host; offset and limit, for"
+                    + " paging through the results; and count, to just return how many"
+                    + " users match. Returns an array of arrays with name, modes and"
+                    + " hostmask keys. Paging is only stable while the channel doesn't change.";
         }
     }
 
     @api
-    public static class irc_channel_info extends IrcFunc {
+    public static class irc_stats extends IrcFunc {
         @Override
         public Class<? extends CREThrowable>[] thrown() {
-            return new Class[]{
-                CRENotFoundException.class, CREIOException.class};
+            return new Class[]{CRENotFoundException.class};
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_nick:" + flatten(args), t);
-
-            SocBot bot = Tracking.getConnected(args[0].val(), t);
+            verbose("CHIRC", "irc_stats", args, t);
 
-            String chanName = args[1].val();
-            Channel chan = bot.getChannel(chanName);
+            SocBot bot = Tracking.get(args[0].val(), t);
+            Stats stats = Tracking.getStats(bot);
 
-            if (chan == null) {
-                throw new CRENotFoundException("Not joined to that channel!", t);
+            if (stats == null) {
+                throw new CRENotFoundException("That id doesn't exist!", t);
             }
 
             CArray retn = new CArray(t);
 
-            retn.set("name", chan.getName());
-            retn.set("modes", chan.getModes());
-            retn.set("topic", chan.getTopic());
+            retn.set("lines_in", new CInt(stats.getLinesIn(), t), t);
+            retn.set("bytes_in", new CInt(stats.getBytesIn(), t), t);
+            retn.set("lines_out", new CInt(stats.getLinesOut(), t), t);
+            retn.set("bytes_out", new CInt(stats.getBytesOut(), t), t);
+            retn.set("sends", new CInt(stats.getSends(), t), t);
+            retn.set("lines_dropped", new CInt(stats.getDropped(), t), t);
+            retn.set("connect_attempts", new CInt(stats.getConnectAttempts(), t), t);
 
-            CArray users = new CArray(t);
+            long last = stats.getLastLine();
 
-            for (Entry<User, String> entry : chan.getUserModes().entrySet()) {
-                CArray data = new CArray(t);
-                data.set("modes", entry.getValue());
+            if (last == 0) {
+                retn.set("since_last_line", CNull.NULL, t);
+            } else {
+                retn.set("since_last_line", new CInt(System.currentTimeMillis() - last, t), t);
+            }
 
-                users.set(entry.getKey().getName(), data, t);
+            CArray events = new CArray(t);
+
+            for (int i = 0; i < Events.eventCount(); i++) {
+                events.set(Events.eventName(i), new CInt(stats.getFired(i), t), t);
             }
 
-            retn.set("users", users, t);
+            retn.set("events", events, t);
+
+            long[] percentiles = stats.getLatency(0.5, 0.9, 0.99, 1);
+            CArray latency = new CArray(t);
+
+            latency.set("count", new CInt(stats.getLatencyCount(), t), t);
+            latency.set("p50", new CInt(percentiles[0], t), t);
+            latency.set("p90", new CInt(percentiles[1], t), t);
+            latency.set("p99", new CInt(percentiles[2], t), t);
+            latency.set("max", new CInt(percentiles[3], t), t);
+
+            retn.set("latency", latency, t);
 
             return retn;
         }
 
         public String getName() {
-            return "irc_channel_info";
+            return "irc_stats";
         }
 
         public Integer[] numArgs() {
-            return new Integer[]{2};
+            return new Integer[]{1};
         }
 
         public String docs() {
-            return "void {id, channel} Get info on a specific channel.";
+            return "array {id} Get counters for a bot: lines_in, bytes_in, lines_out, bytes_out,"
+                    + " sends (calls that queued lines), lines_dropped (queued lines that"
+                    + " couldn't be sent, such as after a disconnect), connect_attempts,"
+                    + " since_last_line (ms"
+                    + " since the server last sent anything, or null), events (times each"
+                    + " event was fired) and latency. Latency has the count, p50, p90, p99"
+                    + " and max of the time in microseconds from a line arriving to its"
+                    + " event handlers starting, accurate to about 20%, or -1 if no events"
+                    + " have been fired yet.";
         }
     }
 
@@ -592,7 +1856,7 @@ public class Functions {
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_nick:" + flatten(args), t);
+            verbose("CHIRC", "irc_user_info", args, t);
 
             SocBot bot = Tracking.getConnected(args[0].val(), t);
 
@@ -605,9 +1869,14 @@ public class Functions {
 
             CArray retn = new CArray(t);
 
+            Who.Info info = Who.of(bot, user);
+
             retn.set("name", user.getName());
             retn.set("modes", user.getModes());
-            retn.set("hostmask", user.getHostmask());
+            retn.set("hostmask", Who.hostmask(bot, user));
+            retn.set("account", info == null || info.getAccount() == null
+                    ? CNull.NULL : new CString(info.getAccount(), t), t);
+            retn.set("away", info == null ? CNull.NULL : CBoolean.get(info.isAway()), t);
 
             return retn;
         }
@@ -621,7 +1890,11 @@ public class Functions {
         }
 
         public String docs() {
-            return "void {id, user} Get info on a specific user.";
+            return "void {id, user} Get info on a specific user: name, modes, hostmask"
+                    + " (always nick!user@host, with * for any part not yet known),"
+                    + " and account and away as of the WHO sent when the bot joined a"
+                    + " channel they're in (null if unknown, or if the server doesn't"
+                    + " support WHOX for account).";
         }
     }
 
@@ -633,7 +1906,7 @@ public class Functions {
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_info:" + flatten(args), t);
+            verbose("CHIRC", "irc_info", args, t);
 
             SocBot bot = Tracking.get(args[0].val(), t);
 
@@ -648,6 +1921,18 @@ public class Functions {
             retn.set("nickname", bot.getNickname());
             retn.set("channels", channels, t);
             retn.set("connected", CBoolean.get(bot.isConnected()), t);
+            retn.set("queued", new CInt(getQueue(bot, t).size(), t), t);
+
+            CArray caps = new CArray(t);
+            Capabilities negotiated = Tracking.getCapabilities(bot);
+
+            if (negotiated != null) {
+                for (String cap : negotiated.getEnabled()) {
+                    caps.push(new CString(cap, t), t);
+                }
+            }
+
+            retn.set("caps", caps, t);
 
             return retn;
         }
@@ -661,7 +1946,10 @@ public class Functions {
         }
 
         public String docs() {
-            return "void {id} Get information about a specific irc connection.";
+            return "void {id} Get information about a specific irc connection."
+                    + " Includes nickname, channels, connected, queued (lines"
+                    + " waiting in the send queue) and caps (the IRCv3 capabilities"
+                    + " the server agreed to).";
         }
     }
 
@@ -673,7 +1961,7 @@ public class Functions {
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_color:" + flatten(args), t);
+            verbose("CHIRC", "irc_color", args, t);
 
             String name = args[0].val().toUpperCase();
             Colors color;
@@ -719,7 +2007,7 @@ public class Functions {
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_style:" + flatten(args), t);
+            verbose("CHIRC", "irc_style", args, t);
 
             String name = args[0].val();
             Styles style;
@@ -755,27 +2043,9 @@ public class Functions {
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_mc2irc_colors:" + flatten(args), t);
-
-            String line = args[0].val();
-            line = line.replaceAll("§0", "\u000301"); // Black
-            line = line.replaceAll("§1", "\u000302"); // Dark Blue
-            line = line.replaceAll("§2", "\u000303"); // Dark Green
-            line = line.replaceAll("§3", "\u000310"); // Dark Aqua
-            line = line.replaceAll("§4", "\u000305"); // Dark Red
-            line = line.replaceAll("§5", "\u000306"); // Dark Purple
-            line = line.replaceAll("§6", "\u000307"); // Gold
-            line = line.replaceAll("§7", "\u000315"); // Grey
-            line = line.replaceAll("§8", "\u000314"); // Dark Grey
-            line = line.replaceAll("§9", "\u000312"); // Blue
-            line = line.replaceAll("§a", "\u000309"); // Green
-            line = line.replaceAll("§b", "\u000311"); // Aqua
-            line = line.replaceAll("§c", "\u000304"); // Red
-            line = line.replaceAll("§d", "\u000313"); // Light Purple
-            line = line.replaceAll("§e", "\u000308"); // Yellow
-            line = line.replaceAll("§f", "\u000300"); // White
-
-            line = line.replaceAll("§.", "");
+            verbose("CHIRC", "irc_mc2irc_colors", args, t);
+
+            String line = ColorTranslator.mcToIrc(args[0].val());
 
             return new CString(line, t);
         }
@@ -789,9 +2059,9 @@ public class Functions {
         }
 
         public String docs() {
-            return "string {line} Return a string with mc colors converted to"
-                    + " irc colors. Unknown colors will be stripped. Does not"
-                    + " support styles (yet!).";
+            return "string {line} Return a string with mc colors and styles"
+                    + " converted to irc colors and styles. Unknown codes will be"
+                    + " stripped.";
         }
     }
 
@@ -803,30 +2073,9 @@ public class Functions {
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_irc2mc_colors:" + flatten(args), t);
+            verbose("CHIRC", "irc_irc2mc_colors", args, t);
 
-            String line = args[0].val();
-            String background = "(,(1[0-5]|0?[0-9]))?";
-            
-            line = line.replaceAll("\u00030?1" + background, "§0");
-            line = line.replaceAll("\u00030?2" + background, "§1");
-            line = line.replaceAll("\u00030?3" + background, "§2");
-            line = line.replaceAll("\u000310" + background, "§3");
-            line = line.replaceAll("\u00030?5" + background, "§4");
-            line = line.replaceAll("\u00030?6" + background, "§5");
-            line = line.replaceAll("\u00030?7" + background, "§6");
-            line = line.replaceAll("\u000315" + background, "§7");
-            line = line.replaceAll("\u000314" + background, "§8");
-            line = line.replaceAll("\u000312" + background, "§9");
-            line = line.replaceAll("\u00030?9" + background, "§a");
-            line = line.replaceAll("\u000311" + background, "§b");
-            line = line.replaceAll("\u00030?4" + background, "§c");
-            line = line.replaceAll("\u000313" + background, "§d");
-            line = line.replaceAll("\u00030?8" + background, "§e");
-            line = line.replaceAll("\u00030?0" + background, "§f");
-
-            line = Colors.removeAll(line);
-            line = Styles.removeAll(line);
+            String line = ColorTranslator.ircToMc(args[0].val());
 
             return new CString(line, t);
         }
@@ -840,9 +2089,9 @@ public class Functions {
         }
 
         public String docs() {
-            return "string {line} Return a string with irc colors converted to"
-                    + " mc colors. Unknown colors will be stripped. Does not"
-                    + " support styles (yet!).";
+            return "string {line} Return a string with irc colors and styles"
+                    + " converted to mc colors and styles. Backgrounds, extended"
+                    + " colors and styles mc doesn't have will be stripped.";
         }
     }
     
@@ -854,7 +2103,7 @@ public class Functions {
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_user_meta:" + flatten(args), t);
+            verbose("CHIRC", "irc_user_meta", args, t);
             
             SocBot bot = Tracking.getConnected(args[0].val(), t);
 
@@ -865,6 +2114,11 @@ public class Functions {
                 throw new CRENotFoundException("No idea who that is!", t);
             }
             
+            for (Map.Entry<String, Mixed> entry : storedMeta(bot, MetaStore.USER, 
+                    user.getName(), user.getMetaData(), t).entrySet()) {
+                user.setMetaData(entry.getKey(), entry.getValue());
+            }
+            
             CArray retn = new CArray(t);
             
             for (Map.Entry<String, Object> entry : user.getMetaData().entrySet()) {
@@ -903,7 +2157,7 @@ public class Functions {
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_channel_meta:" + flatten(args), t);
+            verbose("CHIRC", "irc_channel_meta", args, t);
             
             SocBot bot = Tracking.getConnected(args[0].val(), t);
 
@@ -914,6 +2168,11 @@ public class Functions {
                 throw new CRENotFoundException("No clue about that channel!", t);
             }
             
+            for (Map.Entry<String, Mixed> entry : storedMeta(bot, MetaStore.CHANNEL, 
+                    channel.getName(), channel.getMetaData(), t).entrySet()) {
+                channel.setMetaData(entry.getKey(), entry.getValue());
+            }
+            
             CArray retn = new CArray(t);
             
             for (Map.Entry<String, Object> entry : channel.getMetaData().entrySet()) {
@@ -948,11 +2207,12 @@ public class Functions {
     public static class irc_set_user_meta extends IrcFunc {
         @Override
         public Class<? extends CREThrowable>[] thrown() {
-            return new Class[]{};
+            return new Class[]{
+                CRENotFoundException.class, CREIOException.class, CREFormatException.class};
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_set_user_meta:" + flatten(args), t);
+            verbose("CHIRC", "irc_set_user_meta", args, t);
             
             SocBot bot = Tracking.getConnected(args[0].val(), t);
 
@@ -966,6 +2226,7 @@ public class Functions {
             String key = args[2].val();
             Mixed value = args[3];
             
+            storeMeta(bot, MetaStore.USER, user.getName(), key, value, t);
             user.setMetaData(key, value);
             
             return CNull.NULL;
@@ -980,7 +2241,8 @@ public class Functions {
         }
 
         public String docs() {
-            return "array {id, name, key, value} Set metadata for a given user.";
+            return "array {id, name, key, value} Set metadata for a given user."
+                    + " With a metadata store configured, the value is also saved to disk.";
         }
     }
     
@@ -988,11 +2250,12 @@ public class Functions {
     public static class irc_set_channel_meta extends IrcFunc {
         @Override
         public Class<? extends CREThrowable>[] thrown() {
-            return new Class[]{};
+            return new Class[]{
+                CRENotFoundException.class, CREIOException.class, CREFormatException.class};
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_set_channel_meta:" + flatten(args), t);
+            verbose("CHIRC", "irc_set_channel_meta", args, t);
             
             SocBot bot = Tracking.getConnected(args[0].val(), t);
 
@@ -1006,6 +2269,7 @@ public class Functions {
             String key = args[2].val();
             Mixed value = args[3];
             
+            storeMeta(bot, MetaStore.CHANNEL, channel.getName(), key, value, t);
             channel.setMetaData(key, value);
             
             return CNull.NULL;
@@ -1020,7 +2284,8 @@ public class Functions {
         }
 
         public String docs() {
-            return "array {id, name, key, value} Set metadata for a given channel.";
+            return "array {id, name, key, value} Set metadata for a given channel."
+                    + " With a metadata store configured, the value is also saved to disk.";
         }
     }
     
@@ -1028,11 +2293,12 @@ public class Functions {
     public static class irc_del_user_meta extends IrcFunc {
         @Override
         public Class<? extends CREThrowable>[] thrown() {
-            return new Class[]{};
+            return new Class[]{
+                CRENotFoundException.class, CREIOException.class};
         }
 
         public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-            verbose("CHIRC", "irc_del_user_meta:" + flatten(args), t);
+            verbose("CHIRC", "irc_del_user_meta", args, t);
             
             SocBot bot = Tracking.getConnected(args[0].val(), t);
 
@@ -1044,10 +2310,18 @@ public class Functions {
             }
             
             String key = args[2].val();
-            
             Object retn = user.remMetaData(key);
             
-            if (retn instanceof Mixed) {
+            if (retn == null) {
+                retn = storedMeta(bot, MetaStore.USER, user.getName(), 
+                        user.getMetaData(), t).get(key);
+            }
+            
+            storeMeta(bot, MetaStore.USER, user.getName(), key, null, t);
+            
+            if (retn == null) {
+                return CNull.NULL;
+            } else if (retn instanceof Mixed) {
                 return (Mixed)retn;
             } else {
                 return new CString(retn.toString(), t);
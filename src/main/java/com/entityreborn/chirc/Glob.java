@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import java.util.Locale;
+
+/**
+ * A case insensitive IRC style mask, where * matches any run of characters
+ * and ? matches exactly one.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Glob {
+    private final String pattern;
+    private final boolean any;
+    
+    public Glob(String pattern) {
+        this.pattern = pattern.toLowerCase(Locale.ENGLISH);
+        this.any = !pattern.isEmpty() && this.pattern.replace("*", "").isEmpty();
+    }
+    
+    public boolean matches(String text) {
+        if (any) {
+            return true;
+        }
+        
+        if (text == null) {
+            return false;
+        }
+        
+        int p = 0;
+        int s = 0;
+        int star = -1;
+        int mark = 0;
+        int plen = pattern.length();
+        int slen = text.length();
+        
+        while (s < slen) {
+            char c = Character.toLowerCase(text.charAt(s));
+            
+            if (p < plen && (pattern.charAt(p) == '?' || pattern.charAt(p) == c)) {
+                p++;
+                s++;
+            } else if (p < plen && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = s;
+            } else if (star != -1) {
+                // Let the last * swallow one more character and retry.
+                p = star + 1;
+                s = ++mark;
+            } else {
+                return false;
+            }
+        }
+        
+        while (p < plen && pattern.charAt(p) == '*') {
+            p++;
+        }
+        
+        return p == plen;
+    }
+    
+    /**
+     * The full nick!user@host of a user, as far as we know it.
+     */
+    public static String hostmask(String nick, String mask) {
+        if (mask == null || mask.isEmpty()) {
+            return nick + "!*@*";
+        } else if (mask.indexOf('!') != -1) {
+            return mask;
+        } else if (mask.indexOf('@') != -1) {
+            return nick + "!" + mask;
+        } else {
+            return nick + "!*@" + mask;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import static com.entityreborn.chirc.ColorTranslator.*;
+import com.entityreborn.socbot.SocBot;
+import com.entityreborn.socbot.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits messages that would go over the IRC line limit once the server
+ * has added our hostmask. Lengths are counted in UTF-8 bytes, and any
+ * formatting still active at a split is repeated on the next line.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class MessageSplitter {
+    /** The longest line a server will relay, including the CRLF. */
+    public static final int MAX_LINE = 512;
+    
+    // Worst cases for the parts of our own hostmask we don't know yet.
+    private static final int NICKLEN = 30;
+    private static final int USERLEN = 10;
+    private static final int HOSTLEN = 63;
+    
+    // Indexed by style bit position.
+    private static final char[] TOGGLES = {
+        BOLD, ITALIC, UNDERLINE, STRIKETHRU, REVERSE, MONOSPACE};
+    
+    /**
+     * The number of bytes of text that fit in one command to the target,
+     * once the server adds ":source " in front of it.
+     */
+    public static int limit(SocBot bot, String command, String target) {
+        return limit(sourceLength(bot), command, target);
+    }
+    
+    static int limit(int source, String command, String target) {
+        // ":" source " " command " " target " :" text "\r\n"
+        return MAX_LINE - source - command.length() - utf8Length(target, 0, target.length()) - 7;
+    }
+    
+    /**
+     * The length of the nick!user@host the server will put on our lines.
+     */
+    static int sourceLength(SocBot bot) {
+        String nick = bot.getNickname();
+        
+        if (nick == null) {
+            return NICKLEN + 1 + USERLEN + 1 + HOSTLEN;
+        }
+        
+        int nickLength = utf8Length(nick, 0, nick.length());
+        User self = bot.getUser(nick);
+        String mask = self == null ? null : Who.seen(bot, self);
+        
+        if (mask == null || mask.isEmpty()) {
+            return nickLength + 1 + USERLEN + 1 + HOSTLEN;
+        }
+        
+        int maskLength = utf8Length(mask, 0, mask.length());
+        
+        if (mask.indexOf('!') != -1) {
+            return maskLength;
+        } else if (mask.indexOf('@') != -1) {
+            return nickLength + 1 + maskLength;
+        } else {
+            return nickLength + 1 + USERLEN + 1 + maskLength;
+        }
+    }
+    
+    /**
+     * The UTF-8 length of part of a string, without encoding it.
+     */
+    static int utf8Length(CharSequence text, int start, int end) {
+        int bytes = 0;
+        
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        
+        return bytes;
+    }
+    
+    /**
+     * Split text into pieces of at most max UTF-8 bytes, breaking at spaces
+     * where possible. Text that already fits is returned as the only piece.
+     * CR and LF always end a piece, so they can never reach the server as
+     * the end of a line; empty lines between them are dropped.
+     */
+    public static List<String> split(String text, int max) {
+        if (text.indexOf('\r') == -1 && text.indexOf('\n') == -1) {
+            return splitLine(text, max);
+        }
+        
+        List<String> lines = new ArrayList<String>();
+        int len = text.length();
+        int start = 0;
+        
+        for (int i = 0; i <= len; i++) {
+            if (i < len && text.charAt(i) != '\r' && text.charAt(i) != '\n') {
+                continue;
+            }
+            
+            if (i > start) {
+                lines.addAll(splitLine(text.substring(start, i), max));
+            }
+            
+            start = i + 1;
+        }
+        
+        return lines;
+    }
+    
+    private static List<String> splitLine(String text, int max) {
+        int len = text.length();
+        
+        // No UTF-16 char is more than three bytes.
+        if (len * 3 <= max || utf8Length(text, 0, len) <= max) {
+            return Collections.singletonList(text);
+        }
+        
+        List<String> lines = new ArrayList<String>(len / Math.max(1, max / 2) + 2);
+        StringBuilder line = new StringBuilder(max);
+        String color = null;
+        int styles = 0;
+        int start = 0;
+        
+        while (start < len) {
+            line.setLength(0);
+            carry(line, color, styles, text.charAt(start));
+            
+            int budget = max - line.length();
+            int used = 0;
+            int i = start;
+            
+            String scanColor = color;
+            int scanStyles = styles;
+            int space = -1;
+            String spaceColor = null;
+            int spaceStyles = 0;
+            
+            while (i < len) {
+                int end = unitEnd(text, i);
+                int size = utf8Length(text, i, end);
+                
+                // Always take one unit, so an absurd limit still gets through.
+                if (used + size > budget && i > start) {
+                    // A space that doesn't fit is still the best place to break.
+                    if (text.charAt(i) == ' ') {
+                        space = i;
+                        spaceColor = scanColor;
+                        spaceStyles = scanStyles;
+                    }
+                    
+                    break;
+                }
+                
+                char c = text.charAt(i);
+                
+                if (c == ' ' && i > start) {
+                    space = i;
+                    spaceColor = scanColor;
+                    spaceStyles = scanStyles;
+                } else if (c == COLOR) {
+                    scanColor = end - i > 1 ? normalize(text, i + 1, end) : null;
+                } else if (c == RESET) {
+                    scanColor = null;
+                    scanStyles = 0;
+                } else {
+                    scanStyles ^= toggle(c);
+                }
+                
+                used += size;
+                i = end;
+            }
+            
+            if (i == len) {
+                lines.add(line.append(text, start, len).toString());
+                break;
+            }
+            
+            if (space != -1) {
+                lines.add(line.append(text, start, space).toString());
+                color = spaceColor;
+                styles = spaceStyles;
+                start = space + 1;
+            } else {
+                lines.add(line.append(text, start, i).toString());
+                color = scanColor;
+                styles = scanStyles;
+                start = i;
+            }
+        }
+        
+        return lines;
+    }
+    
+    private static int toggle(char c) {
+        if (c >= 0x20) {
+            return 0;
+        }
+        
+        for (int i = 0; i < TOGGLES.length; i++) {
+            if (TOGGLES[i] == c) {
+                return 1 << i;
+            }
+        }
+        
+        return 0;
+    }
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static boolean isHex(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+    
+    /**
+     * Where the formatting code or character starting at i ends, so codes
+     * and surrogate pairs are never split.
+     */
+    private static int unitEnd(String text, int i) {
+        int len = text.length();
+        char c = text.charAt(i);
+        int j = i + 1;
+        
+        if (c == COLOR) {
+            if (j < len && isDigit(text.charAt(j))) {
+                j++;
+                
+                if (j < len && isDigit(text.charAt(j))) {
+                    j++;
+                }
+                
+                // A comma is only a background if a digit follows.
+                if (j + 1 < len && text.charAt(j) == ',' && isDigit(text.charAt(j + 1))) {
+                    j += 2;
+                    
+                    if (j < len && isDigit(text.charAt(j))) {
+                        j++;
+                    }
+                }
+            }
+        } else if (c == HEX_COLOR) {
+            while (j < len && j < i + 7 && isHex(text.charAt(j))) {
+                j++;
+            }
+            
+            if (j + 1 < len && text.charAt(j) == ',' && isHex(text.charAt(j + 1))) {
+                int bg = ++j;
+                
+                while (j < len && j < bg + 6 && isHex(text.charAt(j))) {
+                    j++;
+                }
+            }
+        } else if (Character.isHighSurrogate(c) && j < len
+                && Character.isLowSurrogate(text.charAt(j))) {
+            j++;
+        }
+        
+        return j;
+    }
+    
+    /**
+     * Two digit foreground and background, so a carried color can't run
+     * into digits at the start of the next line.
+     */
+    private static String normalize(String text, int start, int end) {
+        int comma = text.indexOf(',', start);
+        
+        if (comma == -1 || comma >= end) {
+            return pad(text, start, end);
+        }
+        
+        return pad(text, start, comma) + "," + pad(text, comma + 1, end);
+    }
+    
+    private static String pad(String text, int start, int end) {
+        return end - start == 1 ? "0" + text.charAt(start) : text.substring(start, end);
+    }
+    
+    private static void carry(StringBuilder line, String color, int styles, char next) {
+        if (color != null) {
+            line.append(COLOR).append(color);
+            
+            // Keep a leading comma from being read as a background.
+            if (next == ',' && color.indexOf(',') == -1) {
+                line.append(BOLD).append(BOLD);
+            }
+        }
+        
+        for (int i = 0; i < TOGGLES.length; i++) {
+            if ((styles & (1 << i)) != 0) {
+                line.append(TOGGLES[i]);
+            }
+        }
+    }
+}
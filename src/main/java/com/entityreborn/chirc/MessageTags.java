@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads IRCv3 message tags, the "@key=value;key2" section some servers put
+ * in front of a line once message-tags or server-time is negotiated.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class MessageTags {
+    /**
+     * The tags on a raw line, unescaped. Empty if it has none.
+     */
+    public static Map<String, String> parse(String line) {
+        if (line == null || !line.startsWith("@")) {
+            return Collections.emptyMap();
+        }
+        
+        int end = line.indexOf(' ');
+        
+        if (end == -1) {
+            end = line.length();
+        }
+        
+        Map<String, String> tags = new LinkedHashMap<String, String>();
+        int start = 1;
+        
+        while (start < end) {
+            int next = line.indexOf(';', start);
+            
+            if (next == -1 || next > end) {
+                next = end;
+            }
+            
+            int equals = line.indexOf('=', start);
+            
+            if (equals == -1 || equals > next) {
+                tags.put(line.substring(start, next), "");
+            } else {
+                tags.put(line.substring(start, equals), unescape(line, equals + 1, next));
+            }
+            
+            start = next + 1;
+        }
+        
+        tags.remove("");
+        
+        return tags;
+    }
+    
+    private static String unescape(String line, int start, int end) {
+        if (line.indexOf('\\', start) == -1 || line.indexOf('\\', start) >= end) {
+            return line.substring(start, end);
+        }
+        
+        StringBuilder out = new StringBuilder(end - start);
+        
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            
+            // A trailing lone backslash is dropped.
+            if (++i == end) {
+                break;
+            }
+            
+            c = line.charAt(i);
+            
+            switch (c) {
+                case ':':
+                    out.append(';');
+                    break;
+                case 's':
+                    out.append(' ');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+        
+        return out.toString();
+    }
+    
+    /**
+     * Where the command starts in a raw line, past any tags and prefix.
+     * Returns -1 if there's no command.
+     */
+    public static int command(String line) {
+        int start = 0;
+        
+        while (start < line.length() && (line.charAt(start) == '@' || line.charAt(start) == ':')) {
+            start = line.indexOf(' ', start) + 1;
+            
+            if (start == 0) {
+                return -1;
+            }
+            
+            while (start < line.length() && line.charAt(start) == ' ') {
+                start++;
+            }
+        }
+        
+        return start < line.length() ? start : -1;
+    }
+    
+    /**
+     * The command and parameters of a raw line, with the trailing parameter
+     * as the last one. Empty if there's no command.
+     */
+    public static List<String> split(String line) {
+        List<String> parts = new ArrayList<String>();
+        int start = command(line);
+        
+        if (start == -1) {
+            return parts;
+        }
+        
+        while (start < line.length()) {
+            if (line.charAt(start) == ':' && !parts.isEmpty()) {
+                parts.add(line.substring(start + 1));
+                break;
+            }
+            
+            int end = line.indexOf(' ', start);
+            
+            if (end == -1) {
+                end = line.length();
+            }
+            
+            if (end > start) {
+                parts.add(line.substring(start, end));
+            }
+            
+            start = end + 1;
+        }
+        
+        return parts;
+    }
+    
+    /**
+     * The time from a server-time tag in milliseconds, or -1 if there isn't
+     * a valid one.
+     */
+    public static long serverTime(Map<String, String> tags) {
+        String time = tags.get("time");
+        
+        if (time == null) {
+            return -1;
+        }
+        
+        try {
+            return Instant.parse(time).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps user and channel metadata on disk, as an append-only log in a
+ * memory-mapped file. Entries are keyed by bot id plus the case-folded nick
+ * or channel name, and values are stored as JSON. The bot id stands in for
+ * the network, since it's known before connecting and scripts already use
+ * one bot per network.
+ *
+ * Set the system property chirc.meta.file to a path to turn it on. The whole
+ * log is read once at startup, and rewritten with only the live entries once
+ * most of it is overwritten or deleted values. The rewrite happens on a
+ * background thread; only swapping the new log in takes the lock.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class MetaStore {
+    public static final char USER = 'u';
+    public static final char CHANNEL = 'c';
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x43484D31;
+    private static final int HEADER = 8;
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final byte SET = 1;
+    private static final byte DELETE = 2;
+    
+    private static class Value {
+        private final String json;
+        private final int size;
+        
+        public Value(String json, int size) {
+            this.json = json;
+            this.size = size;
+        }
+    }
+    
+    private final File file;
+    private final Map<String, Map<String, Value>> entries = new HashMap<String, Map<String, Value>>();
+    private final CRC32 crc = new CRC32();
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private int position;
+    private long live;
+    private boolean noCompact;
+    private boolean compacting;
+    
+    private MetaStore(File file) {
+        this.file = file;
+    }
+    
+    /**
+     * Open a store, loading whatever it already holds.
+     */
+    public static MetaStore open(File file) throws IOException {
+        MetaStore store = new MetaStore(file);
+        store.load();
+        
+        synchronized (store) {
+            store.compactIfNeeded();
+        }
+        
+        return store;
+    }
+    
+    /**
+     * IRC's case folding, where []\^ are the uppercase forms of {}|~.
+     */
+    public static String fold(String name) {
+        char[] chars = name.toCharArray();
+        
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            
+            if (c >= 'A' && c <= '^') {
+                chars[i] = (char) (c + 32);
+            }
+        }
+        
+        return new String(chars);
+    }
+    
+    private static String owner(String network, char type, String name) {
+        return network + '\u0000' + type + '\u0000' + fold(name);
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    /**
+     * The stored values for a user or channel, as JSON.
+     */
+    public synchronized Map<String, String> get(String network, char type, String name) {
+        Map<String, Value> values = entries.get(owner(network, type, name));
+        
+        if (values == null) {
+            return Collections.emptyMap();
+        }
+        
+        Map<String, String> retn = new HashMap<String, String>(values.size() * 2);
+        
+        for (Map.Entry<String, Value> entry : values.entrySet()) {
+            retn.put(entry.getKey(), entry.getValue().json);
+        }
+        
+        return retn;
+    }
+    
+    public synchronized void set(String network, char type, String name,
+            String key, String json) throws IOException {
+        String owner = owner(network, type, name);
+        int size = append(SET, owner, key, json);
+        
+        apply(SET, owner, key, json, size);
+        compactIfNeeded();
+    }
+    
+    public synchronized void remove(String network, char type, String name,
+            String key) throws IOException {
+        String owner = owner(network, type, name);
+        Map<String, Value> values = entries.get(owner);
+        
+        if (values == null || !values.containsKey(key)) {
+            return;
+        }
+        
+        append(DELETE, owner, key, null);
+        apply(DELETE, owner, key, null, 0);
+        compactIfNeeded();
+    }
+    
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        
+        try {
+            if (raf != null) {
+                raf.close();
+            }
+        } catch (IOException e) {
+            Utils.log("CHIRC", "Couldn't close " + file + ": " + e.getMessage(),
+                    com.laytonsmith.core.constructs.Target.UNKNOWN);
+        }
+        
+        raf = null;
+    }
+    
+    private void map(long size) throws IOException {
+        // Mapping past the end grows the file.
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+    
+    private void load() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        long length = raf.length();
+        
+        map(Math.max(length, INITIAL_SIZE));
+        
+        if (buffer.getInt(0) != MAGIC) {
+            if (length != 0) {
+                raf.close();
+                throw new IOException(file + " isn't a CHIRC metadata store.");
+            }
+            
+            buffer.putInt(0, MAGIC);
+        }
+        
+        position = scan(HEADER, null);
+    }
+    
+    /**
+     * Read the records from a position to the end of the log, applying them
+     * here, or copying them to another store if one is given. Returns where
+     * the log ends.
+     */
+    private int scan(int from, MetaStore into) throws IOException {
+        int at = from;
+        
+        while (at + 8 <= buffer.capacity()) {
+            int size = buffer.getInt(at);
+            
+            if (size <= 0 || at + 8 + size > buffer.capacity()) {
+                break;
+            }
+            
+            byte[] body = new byte[size];
+            buffer.position(at + 8);
+            buffer.get(body);
+            
+            crc.reset();
+            crc.update(body, 0, size);
+            
+            // A torn write from a crash; everything before it is good.
+            if ((int) crc.getValue() != buffer.getInt(at + 4)) {
+                break;
+            }
+            
+            read(body, size + 8, into);
+            at += size + 8;
+        }
+        
+        return at;
+    }
+    
+    private void read(byte[] body, int size, MetaStore into) throws IOException {
+        int[] at = {1};
+        byte op = body[0];
+        String owner = readString(body, at);
+        String key = readString(body, at);
+        String json = op == SET ? readString(body, at) : null;
+        
+        if (into == null) {
+            apply(op, owner, key, json, size);
+        } else {
+            into.apply(op, owner, key, json, into.append(op, owner, key, json));
+        }
+    }
+    
+    private static String readString(byte[] body, int[] at) {
+        int i = at[0];
+        int length = ((body[i] & 0xFF) << 24) | ((body[i + 1] & 0xFF) << 16)
+                | ((body[i + 2] & 0xFF) << 8) | (body[i + 3] & 0xFF);
+        
+        at[0] = i + 4 + length;
+        
+        return new String(body, i + 4, length, UTF8);
+    }
+    
+    private void apply(byte op, String owner, String key, String json, int size) {
+        Map<String, Value> values = entries.get(owner);
+        
+        if (values == null) {
+            if (op != SET) {
+                return;
+            }
+            
+            values = new HashMap<String, Value>();
+            entries.put(owner, values);
+        }
+        
+        Value old = op == SET ? values.put(key, new Value(json, size)) : values.remove(key);
+        
+        if (old != null) {
+            live -= old.size;
+        }
+        
+        if (op == SET) {
+            live += size;
+        } else if (values.isEmpty()) {
+            entries.remove(owner);
+        }
+    }
+    
+    /**
+     * Write a record at the end of the log, returning its size.
+     */
+    private int append(byte op, String owner, String key, String json) throws IOException {
+        byte[] ownerBytes = owner.getBytes(UTF8);
+        byte[] keyBytes = key.getBytes(UTF8);
+        byte[] jsonBytes = json == null ? null : json.getBytes(UTF8);
+        
+        int length = 1 + 4 + ownerBytes.length + 4 + keyBytes.length
+                + (jsonBytes == null ? 0 : 4 + jsonBytes.length);
+        
+        byte[] body = new byte[length];
+        int i = 0;
+        
+        body[i++] = op;
+        i = writeString(body, i, ownerBytes);
+        i = writeString(body, i, keyBytes);
+        
+        if (jsonBytes != null) {
+            writeString(body, i, jsonBytes);
+        }
+        
+        // Keep the next record's length inside the mapping, where it reads
+        // as zero until that record is written; load() stops there.
+        if (position + 8 + length + 4 > buffer.capacity()) {
+            map(Math.max((long) buffer.capacity() * 2, position + 8L + length + 4));
+        }
+        
+        crc.reset();
+        crc.update(body, 0, length);
+        
+        buffer.position(position + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(body);
+        // Length last, so a crash mid-write leaves a zero length or a bad
+        // checksum, never a record that looks whole but isn't.
+        buffer.putInt(position, length);
+        position += 8 + length;
+        
+        return 8 + length;
+    }
+    
+    private static int writeString(byte[] body, int i, byte[] value) {
+        body[i] = (byte) (value.length >>> 24);
+        body[i + 1] = (byte) (value.length >>> 16);
+        body[i + 2] = (byte) (value.length >>> 8);
+        body[i + 3] = (byte) value.length;
+        System.arraycopy(value, 0, body, i + 4, value.length);
+        
+        return i + 4 + value.length;
+    }
+    
+    /**
+     * Start a compaction in the background, if enough of the log is dead.
+     * Called with the lock held.
+     */
+    private void compactIfNeeded() {
+        long used = position - HEADER;
+        
+        if (noCompact || compacting || used < INITIAL_SIZE / 2 || used < live * 2) {
+            return;
+        }
+        
+        compacting = true;
+        
+        final Map<String, Map<String, Value>> current = new HashMap<String, Map<String, Value>>(entries.size() * 2);
+        
+        for (Map.Entry<String, Map<String, Value>> owner : entries.entrySet()) {
+            current.put(owner.getKey(), new HashMap<String, Value>(owner.getValue()));
+        }
+        
+        final int mark = position;
+        
+        Thread thread = new Thread("CHIRC-Compact") {
+            @Override
+            public void run() {
+                try {
+                    compact(current, mark);
+                } catch (IOException e) {
+                    Utils.log("CHIRC", "Couldn't compact " + file + ": " + e.getMessage(),
+                            com.laytonsmith.core.constructs.Target.UNKNOWN);
+                } finally {
+                    synchronized (MetaStore.this) {
+                        compacting = false;
+                    }
+                }
+            }
+        };
+        
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Write the given entries to a new log without holding the lock, then
+     * copy over anything appended since mark and swap the new log in.
+     */
+    private void compact(Map<String, Map<String, Value>> current, int mark) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        temp.delete();
+        
+        MetaStore compacted = new MetaStore(temp);
+        boolean adopted = false;
+        
+        try {
+            compacted.load();
+            
+            for (Map.Entry<String, Map<String, Value>> owner : current.entrySet()) {
+                for (Map.Entry<String, Value> entry : owner.getValue().entrySet()) {
+                    String json = entry.getValue().json;
+                    int size = compacted.append(SET, owner.getKey(), entry.getKey(), json);
+                    
+                    compacted.apply(SET, owner.getKey(), entry.getKey(), json, size);
+                }
+            }
+            
+            synchronized (this) {
+                if (buffer == null) {
+                    // Closed while we were writing.
+                    return;
+                }
+                
+                scan(mark, compacted);
+                
+                try {
+                    Files.move(temp.toPath(), file.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    // Some platforms won't replace a file that's still mapped.
+                    // The old log is untouched, so carry on with it.
+                    Utils.log("CHIRC", "Couldn't compact " + file + ": " + e.getMessage(),
+                            com.laytonsmith.core.constructs.Target.UNKNOWN);
+                    noCompact = true;
+                    return;
+                }
+                
+                // The new log is already open and loaded, under its new name.
+                close();
+                raf = compacted.raf;
+                buffer = compacted.buffer;
+                position = compacted.position;
+                live = compacted.live;
+                entries.clear();
+                entries.putAll(compacted.entries);
+                adopted = true;
+            }
+        } finally {
+            if (!adopted) {
+                compacted.close();
+                temp.delete();
+            }
+        }
+    }
+    
+    /**
+     * Whether a compaction is running, for tests.
+     */
+    synchronized boolean isCompacting() {
+        return compacting;
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.entityreborn.chirc.Events.Netjoin;
+import com.entityreborn.chirc.Events.Netsplit;
+import com.entityreborn.socbot.SocBot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spots netsplits and the rejoins after them. Quits with a "server1 server2"
+ * message are held for a moment and fired as a single irc_netsplit. When
+ * those nicks come back, their joins are held the same way and fired as a
+ * single irc_netjoin.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Netsplits {
+    /** How long quits or joins are gathered before firing. */
+    public static final long WINDOW = 2000;
+    /** How long a split nick is watched for its rejoin. */
+    public static final long MEMORY = 900000;
+    
+    private static class Burst {
+        private final SocBot bot;
+        private final String server1;
+        private final String server2;
+        private final Set<String> nicks = new LinkedHashSet<String>();
+        private final Map<String, List<String>> channels = new LinkedHashMap<String, List<String>>();
+        
+        public Burst(SocBot bot, String server1, String server2) {
+            this.bot = bot;
+            this.server1 = server1;
+            this.server2 = server2;
+        }
+    }
+    
+    private static class Split {
+        private final String server1;
+        private final String server2;
+        private final long time;
+        
+        public Split(String server1, String server2, long time) {
+            this.server1 = server1;
+            this.server2 = server2;
+            this.time = time;
+        }
+    }
+    
+    private final Map<String, Burst> quits = new HashMap<String, Burst>();
+    private final Map<String, Burst> joins = new HashMap<String, Burst>();
+    // Split nicks, by bot id and folded nick.
+    private final Map<String, Split> split = new HashMap<String, Split>();
+    private long pruned = 0;
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * The two servers in a netsplit quit message, or null if it isn't one.
+     */
+    public static String[] servers(String message) {
+        if (message == null) {
+            return null;
+        }
+        
+        int space = message.indexOf(' ');
+        
+        if (space == -1 || message.indexOf(' ', space + 1) != -1) {
+            return null;
+        }
+        
+        String server1 = message.substring(0, space);
+        String server2 = message.substring(space + 1);
+        
+        if (!isServer(server1) || !isServer(server2) || server1.equals(server2)) {
+            return null;
+        }
+        
+        return new String[]{server1, server2};
+    }
+    
+    private static boolean isServer(String name) {
+        int len = name.length();
+        
+        if (len < 3 || name.charAt(0) == '.' || name.charAt(len - 1) == '.'
+                || name.indexOf('.') == -1) {
+            return false;
+        }
+        
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            
+            if (!Character.isLetterOrDigit(c) && c != '.' && c != '-' && c != '_') {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private static String nickKey(SocBot bot, String nick) {
+        return bot.getID() + ' ' + MetaStore.fold(nick);
+    }
+    
+    /**
+     * Note a quit, holding it if it's part of a netsplit and hold is set.
+     * The nick is only watched for its rejoin if remember is set. Returns
+     * true if the quit was held.
+     */
+    public synchronized boolean quit(SocBot bot, String nick, String message,
+            boolean hold, boolean remember) {
+        long now = System.currentTimeMillis();
+        prune(now);
+        
+        if (!hold && !remember) {
+            return false;
+        }
+        
+        String[] servers = servers(message);
+        
+        if (servers == null) {
+            return false;
+        }
+        
+        if (remember) {
+            split.put(nickKey(bot, nick), new Split(servers[0], servers[1], now));
+        }
+        
+        if (!hold) {
+            return false;
+        }
+        
+        String key = bot.getID() + ' ' + message;
+        Burst burst = quits.get(key);
+        
+        if (burst == null) {
+            burst = new Burst(bot, servers[0], servers[1]);
+            
+            if (!schedule(quits, key)) {
+                return false;
+            }
+            
+            quits.put(key, burst);
+        }
+        
+        burst.nicks.add(nick);
+        
+        return true;
+    }
+    
+    /**
+     * Note a join, holding it if the nick split recently and hold is set.
+     * Returns true if the join was held.
+     */
+    public synchronized boolean join(SocBot bot, String nick, String channel, boolean hold) {
+        if (split.isEmpty()) {
+            return false;
+        }
+        
+        long now = System.currentTimeMillis();
+        prune(now);
+        
+        Split last = split.get(nickKey(bot, nick));
+        
+        if (last == null || !hold) {
+            return false;
+        }
+        
+        if (now - last.time > MEMORY) {
+            split.remove(nickKey(bot, nick));
+            return false;
+        }
+        
+        String key = bot.getID() + ' ' + last.server1 + ' ' + last.server2;
+        Burst burst = joins.get(key);
+        
+        if (burst == null) {
+            burst = new Burst(bot, last.server1, last.server2);
+            
+            if (!schedule(joins, key)) {
+                return false;
+            }
+            
+            joins.put(key, burst);
+        }
+        
+        burst.nicks.add(nick);
+        
+        List<String> nicks = burst.channels.get(channel);
+        
+        if (nicks == null) {
+            nicks = new ArrayList<String>();
+            burst.channels.put(channel, nicks);
+        }
+        
+        nicks.add(nick);
+        
+        return true;
+    }
+    
+    private boolean schedule(final Map<String, Burst> bursts, final String key) {
+        try {
+            getScheduler().schedule(new Runnable() {
+                public void run() {
+                    flush(bursts, key);
+                }
+            }, WINDOW, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+        
+        return true;
+    }
+    
+    private void flush(Map<String, Burst> bursts, String key) {
+        Burst burst;
+        
+        synchronized (this) {
+            burst = bursts.remove(key);
+            
+            if (burst == null) {
+                return;
+            }
+            
+            if (bursts == joins) {
+                for (String nick : burst.nicks) {
+                    split.remove(nickKey(burst.bot, nick));
+                }
+            }
+        }
+        
+        List<String> nicks = new ArrayList<String>(burst.nicks);
+        
+        if (bursts == joins) {
+            Tracking.getEvents().fireEvent("irc_netjoin",
+                    new Netjoin(burst.bot, burst.server1, burst.server2, nicks, burst.channels));
+        } else {
+            Tracking.getEvents().fireEvent("irc_netsplit",
+                    new Netsplit(burst.bot, burst.server1, burst.server2, nicks));
+        }
+    }
+    
+    /**
+     * Forget split nicks that didn't come back in time, at most once per
+     * window.
+     */
+    private void prune(long now) {
+        if (split.isEmpty() || now - pruned < WINDOW) {
+            return;
+        }
+        
+        pruned = now;
+        Iterator<Split> it = split.values().iterator();
+        
+        while (it.hasNext()) {
+            if (now - it.next().time > MEMORY) {
+                it.remove();
+            }
+        }
+    }
+    
+    /**
+     * Forget everything about a bot, such as when it disconnects. Anything
+     * already held is still fired.
+     */
+    public synchronized void clear(SocBot bot) {
+        String prefix = bot.getID() + ' ';
+        Iterator<String> it = split.keySet().iterator();
+        
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+    
+    public void shutdown() {
+        ScheduledExecutorService exec;
+        
+        synchronized (this) {
+            exec = scheduler;
+            scheduler = null;
+            quits.clear();
+            joins.clear();
+            split.clear();
+        }
+        
+        if (exec != null) {
+            exec.shutdownNow();
+        }
+    }
+    
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor exec = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CHIRC-Netsplit");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            
+            exec.setRemoveOnCancelPolicy(true);
+            scheduler = exec;
+        }
+        
+        return scheduler;
+    }
+}
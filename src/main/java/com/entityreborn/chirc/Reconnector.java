@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.entityreborn.chirc.Events.Reconnecting;
+import com.entityreborn.socbot.SocBot;
+import com.laytonsmith.core.constructs.Target;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconnects bots that lost their connection, backing off exponentially
+ * with jitter and rotating through a list of servers. All bots share a
+ * single scheduler thread, which only hands attempts off to the Connector.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Reconnector {
+    public static final long DEFAULT_DELAY = 5000;
+    public static final long DEFAULT_MAX_DELAY = 300000;
+    
+    private final ConcurrentMap<String, Policy> policies = new ConcurrentHashMap<String, Policy>();
+    private final Random random = new Random();
+    private ScheduledExecutorService scheduler;
+    
+    public static class Server {
+        private final String host;
+        private final int port;
+
+        public Server(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+    }
+    
+    /**
+     * How a single bot should be reconnected, and how far along it is.
+     */
+    public static class Policy {
+        private final long delay;
+        private final long maxDelay;
+        private final List<Server> servers = new ArrayList<Server>();
+        private final String password;
+        
+        private int attempt = 0;
+        private int server = 0;
+        private ScheduledFuture<?> next;
+
+        public Policy(long delay, long maxDelay, String password) {
+            this.delay = delay;
+            this.maxDelay = maxDelay;
+            this.password = password;
+        }
+        
+        public void addServer(String host, int port) {
+            servers.add(new Server(host, port));
+        }
+    }
+    
+    public void setPolicy(SocBot bot, Policy policy) {
+        Policy old = policies.put(bot.getID(), policy);
+        
+        if (old != null) {
+            cancel(old);
+        }
+    }
+    
+    public void clear(SocBot bot) {
+        Policy old = policies.remove(bot.getID());
+        
+        if (old != null) {
+            cancel(old);
+        }
+    }
+    
+    /**
+     * The bot signed in, so start backing off from scratch next time.
+     */
+    public void succeeded(SocBot bot) {
+        Policy policy = policies.get(bot.getID());
+        
+        if (policy != null) {
+            synchronized (policy) {
+                policy.attempt = 0;
+            }
+        }
+    }
+    
+    /**
+     * A connection attempt failed or the connection dropped. Schedules the
+     * next attempt, unless one is already scheduled.
+     */
+    public void failed(final SocBot bot) {
+        final Policy policy = policies.get(bot.getID());
+        
+        if (policy == null || policy.servers.isEmpty()) {
+            return;
+        }
+        
+        final Server server;
+        final long wait;
+        final int attempt;
+        
+        synchronized (policy) {
+            if (policy.next != null && !policy.next.isDone()) {
+                return;
+            }
+            
+            attempt = ++policy.attempt;
+            
+            if (attempt > 1) {
+                policy.server = (policy.server + 1) % policy.servers.size();
+            }
+            
+            server = policy.servers.get(policy.server);
+            
+            // Double the delay each attempt (without overflowing), then pick
+            // somewhere between half and all of it.
+            long delay = policy.delay << Math.min(attempt - 1, 20);
+            delay = Math.min(Math.max(delay, policy.delay), policy.maxDelay);
+            
+            synchronized (random) {
+                wait = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+            }
+            
+            try {
+                policy.next = getScheduler().schedule(new Runnable() {
+                    public void run() {
+                        // No longer pending, so a failure from here on,
+                        // even a fast one, schedules the next attempt.
+                        synchronized (policy) {
+                            policy.next = null;
+                        }
+                        
+                        attempt(bot, policy, server);
+                    }
+                }, wait, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+        }
+        
+        Tracking.getEvents().fireEvent("irc_reconnecting", 
+                new Reconnecting(bot, attempt, wait, server.getHost(), server.getPort()));
+    }
+    
+    public void shutdown() {
+        ScheduledExecutorService exec;
+        
+        synchronized (this) {
+            exec = scheduler;
+            scheduler = null;
+        }
+        
+        if (exec != null) {
+            exec.shutdownNow();
+        }
+        
+        policies.clear();
+    }
+    
+    private void attempt(SocBot bot, Policy policy, Server server) {
+        // Destroyed or reconfigured while we were waiting.
+        if (policies.get(bot.getID()) != policy || bot.isConnected()) {
+            return;
+        }
+        
+        boolean started;
+        
+        try {
+            started = Tracking.getConnector().connect(bot, 
+                    Connector.attempt(bot, server.getHost(), server.getPort(), policy.password), true);
+        } catch (RejectedExecutionException e) {
+            Utils.log("CHIRC", "Couldn't reconnect " + bot.getID() 
+                    + ", too many connection attempts are pending.", Target.UNKNOWN);
+            started = false;
+        }
+        
+        // Try again later rather than giving up for good.
+        if (!started) {
+            failed(bot);
+        }
+    }
+    
+    private void cancel(Policy policy) {
+        synchronized (policy) {
+            if (policy.next != null) {
+                policy.next.cancel(false);
+                policy.next = null;
+            }
+        }
+    }
+    
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor exec = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CHIRC-Reconnect");
+                    thread.setDaemon(true);
+                    
+                    return thread;
+                }
+            });
+            
+            exec.setRemoveOnCancelPolicy(true);
+            scheduler = exec;
+        }
+        
+        return scheduler;
+    }
+}
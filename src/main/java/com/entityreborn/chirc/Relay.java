@@ -0,0 +1,279 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.entityreborn.socbot.SocBot;
+import com.laytonsmith.core.constructs.CBoolean;
+import com.laytonsmith.core.constructs.CClosure;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.exceptions.FunctionReturnException;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relays Minecraft chat to IRC channels for a bot. Each line is formatted
+ * from a template, has its colors converted, and is held for a short window
+ * so everything said in that time is queued to the bot in one batch.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Relay {
+    /** How long lines are gathered before queueing, by default. */
+    public static final long DEFAULT_WINDOW = 250;
+    public static final String DEFAULT_FORMAT = "<%player%> %message%";
+    
+    private static ScheduledExecutorService scheduler;
+    
+    private final SocBot bot;
+    private final String name;
+    private final List<String> channels;
+    private final Template format;
+    private final boolean mccolors;
+    private final int rate;
+    private final long window;
+    private final CClosure veto;
+    private final List<String> pending = new ArrayList<String>();
+    private double tokens;
+    private long refilled;
+    private long relayed = 0;
+    private long dropped = 0;
+    private volatile boolean removed = false;
+    
+    /**
+     * Rate is in lines per second, or 0 for no limit. Veto may be null.
+     */
+    public Relay(SocBot bot, String name, List<String> channels, String format,
+            boolean mccolors, int rate, long window, CClosure veto) {
+        this.bot = bot;
+        this.name = name;
+        this.channels = Collections.unmodifiableList(new ArrayList<String>(channels));
+        this.format = new Template(format, "player", "message");
+        this.mccolors = mccolors;
+        this.rate = rate;
+        this.window = window;
+        this.veto = veto;
+        this.tokens = rate;
+        this.refilled = System.nanoTime();
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public List<String> getChannels() {
+        return channels;
+    }
+    
+    public synchronized long getRelayed() {
+        return relayed;
+    }
+    
+    public synchronized long getDropped() {
+        return dropped;
+    }
+    
+    /**
+     * Relay a chat line. The veto hook, if any, runs first on the calling
+     * thread; returning false drops the line, and returning a string relays
+     * that instead. Returns false if the line was vetoed or over the rate.
+     */
+    public boolean chat(String player, String message, Target t) {
+        if (removed) {
+            return false;
+        }
+        
+        if (veto != null) {
+            Mixed result = CNull.NULL;
+            
+            try {
+                veto.execute(new CString(player, t), new CString(message, t));
+            } catch (FunctionReturnException e) {
+                result = e.getReturn();
+            }
+            
+            if (result instanceof CBoolean && !((CBoolean) result).getBoolean()) {
+                return false;
+            }
+            
+            if (result instanceof CString) {
+                message = result.val();
+            }
+        }
+        
+        String line = format(player, message);
+        boolean flush;
+        
+        synchronized (this) {
+            if (!take()) {
+                dropped++;
+                return false;
+            }
+            
+            pending.add(line);
+            flush = pending.size() == 1 && (window <= 0 || !schedule());
+        }
+        
+        if (flush) {
+            flush();
+        }
+        
+        return true;
+    }
+    
+    private String format(String player, String message) {
+        String line = format.fill(player, message);
+        
+        return mccolors ? ColorTranslator.mcToIrc(line) : line;
+    }
+    
+    private boolean take() {
+        if (rate <= 0) {
+            return true;
+        }
+        
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - refilled) / 1e9 * rate);
+        refilled = now;
+        
+        if (tokens < 1) {
+            return false;
+        }
+        
+        tokens--;
+        
+        return true;
+    }
+    
+    private boolean schedule() {
+        try {
+            getScheduler().schedule(new Runnable() {
+                public void run() {
+                    flush();
+                }
+            }, window, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Queue everything gathered so far to the bot.
+     */
+    public void flush() {
+        List<String> batch;
+        
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            
+            batch = new ArrayList<String>(pending);
+            pending.clear();
+        }
+        
+        if (removed || !bot.isConnected()) {
+            synchronized (this) {
+                dropped += batch.size();
+            }
+            
+            return;
+        }
+        
+        List<String> lines = new ArrayList<String>();
+        
+        for (String message : batch) {
+            Functions.addPacked(lines, bot, channels, message, false, null);
+        }
+        
+        try {
+            Functions.enqueueAll(bot, lines, Target.UNKNOWN);
+            
+            synchronized (this) {
+                relayed += batch.size();
+            }
+        } catch (ConfigRuntimeException e) {
+            synchronized (this) {
+                dropped += batch.size();
+            }
+            
+            Utils.log("CHIRC", "Dropped " + batch.size() + " lines from relay " + name
+                    + " on " + bot.getID() + ": " + e.getMessage(), Target.UNKNOWN);
+        }
+    }
+    
+    /**
+     * Stop relaying. Anything still held is dropped.
+     */
+    public void remove() {
+        removed = true;
+        
+        synchronized (this) {
+            dropped += pending.size();
+            pending.clear();
+        }
+    }
+    
+    public static void shutdown() {
+        ScheduledExecutorService exec;
+        
+        synchronized (Relay.class) {
+            exec = scheduler;
+            scheduler = null;
+        }
+        
+        if (exec != null) {
+            exec.shutdownNow();
+        }
+    }
+    
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor exec = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CHIRC-Relay");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            
+            exec.setRemoveOnCancelPolicy(true);
+            scheduler = exec;
+        }
+        
+        return scheduler;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.entityreborn.socbot.SocBot;
+import com.laytonsmith.core.constructs.Target;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Outbound line queue for a single bot. Chat lines are released through a
+ * token bucket so bursts don't get the bot killed for flooding, while control
+ * lines (PONG, QUIT, NICK, etc) go through a priority lane that skips any
+ * queued chat.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class SendQueue {
+    public static final int DEFAULT_BURST = 5;
+    public static final long DEFAULT_REFILL = 2000;
+    public static final int DEFAULT_CAPACITY = 512;
+    
+    private static final String[] CONTROL = new String[]{
+        "PONG", "PING", "QUIT", "NICK", "JOIN", "PART", "PASS", "USER", "CAP", "AUTHENTICATE"};
+    
+    private final SocBot bot;
+    private final Stats stats;
+    private final Object lock = new Object();
+    private final LinkedList<String> priority = new LinkedList<String>();
+    private final LinkedList<String> normal = new LinkedList<String>();
+    
+    private int burst = DEFAULT_BURST;
+    private long refill = DEFAULT_REFILL;
+    private int capacity = DEFAULT_CAPACITY;
+    
+    private double tokens = DEFAULT_BURST;
+    private long lastRefill = System.currentTimeMillis();
+    
+    private Thread worker;
+    private boolean running = true;
+
+    public SendQueue(SocBot bot) {
+        this(bot, null);
+    }
+    
+    public SendQueue(SocBot bot, Stats stats) {
+        this.bot = bot;
+        this.stats = stats;
+    }
+    
+    /**
+     * Whether a raw line is a control line that should skip queued chat.
+     */
+    public static boolean isControl(String line) {
+        int end = line.indexOf(' ');
+        String command = end == -1 ? line : line.substring(0, end);
+        
+        for (String control : CONTROL) {
+            if (control.equalsIgnoreCase(command)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Queue a chat line. Returns false if the queue is full.
+     */
+    public boolean offer(String line) {
+        synchronized (lock) {
+            if (!running || normal.size() >= capacity) {
+                return false;
+            }
+            
+            normal.add(line);
+            start();
+            lock.notifyAll();
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Queue several chat lines at once. Either all of them are queued, or
+     * none are and this returns false.
+     */
+    public boolean offerAll(Collection<String> lines) {
+        synchronized (lock) {
+            if (!running || normal.size() + lines.size() > capacity) {
+                return false;
+            }
+            
+            normal.addAll(lines);
+            start();
+            lock.notifyAll();
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Queue control lines ahead of any queued chat and chat lines behind
+     * it, in one go. Either all of them are queued, or none are and this
+     * returns false.
+     */
+    public boolean offerAll(Collection<String> controls, Collection<String> lines) {
+        synchronized (lock) {
+            if (!running || normal.size() + lines.size() > capacity) {
+                return false;
+            }
+            
+            priority.addAll(controls);
+            normal.addAll(lines);
+            start();
+            lock.notifyAll();
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Queue a control line ahead of any queued chat.
+     */
+    public boolean offerPriority(String line) {
+        synchronized (lock) {
+            if (!running) {
+                return false;
+            }
+            
+            priority.add(line);
+            start();
+            lock.notifyAll();
+        }
+        
+        return true;
+    }
+    
+    public int size() {
+        synchronized (lock) {
+            return priority.size() + normal.size();
+        }
+    }
+    
+    /**
+     * Drop anything still queued, and refill the bucket for the next
+     * connection.
+     */
+    public void clear() {
+        synchronized (lock) {
+            if (stats != null) {
+                stats.dropped(priority.size() + normal.size());
+            }
+            
+            priority.clear();
+            normal.clear();
+            tokens = burst;
+            lastRefill = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * Set how many lines can be sent back to back, and how many milliseconds
+     * it takes to earn another one.
+     */
+    public void setFloodControl(int burst, long refill) {
+        synchronized (lock) {
+            this.burst = burst;
+            this.refill = refill;
+            tokens = Math.min(tokens, burst);
+            lock.notifyAll();
+        }
+    }
+    
+    public void shutdown() {
+        synchronized (lock) {
+            running = false;
+            priority.clear();
+            normal.clear();
+            lock.notifyAll();
+        }
+    }
+    
+    private void start() {
+        if (worker != null) {
+            return;
+        }
+        
+        worker = new Thread("CHIRC-Sender-" + bot.getID()) {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+        
+        worker.setDaemon(true);
+        worker.start();
+    }
+    
+    private void refill() {
+        long now = System.currentTimeMillis();
+        
+        if (refill <= 0) {
+            tokens = burst;
+        } else {
+            tokens = Math.min(burst, tokens + (double) (now - lastRefill) / refill);
+        }
+        
+        lastRefill = now;
+    }
+    
+    private void drain() {
+        List<String> lines = new ArrayList<String>();
+        
+        while (true) {
+            synchronized (lock) {
+                try {
+                    while (running && priority.isEmpty() && normal.isEmpty()) {
+                        lock.wait();
+                    }
+                    
+                    if (!running) {
+                        return;
+                    }
+                    
+                    refill();
+                    
+                    // Control lines never wait, but they still count
+                    // against the server's flood limit, down to an empty
+                    // bucket so a burst of them can't stall chat for long.
+                    while (!priority.isEmpty()) {
+                        lines.add(priority.poll());
+                        tokens = Math.max(0, tokens - 1);
+                    }
+                    
+                    // Take as much chat as the bucket allows in one go.
+                    while (!normal.isEmpty() && tokens >= 1) {
+                        lines.add(normal.poll());
+                        tokens -= 1;
+                    }
+                    
+                    if (lines.isEmpty()) {
+                        lock.wait(Math.max(1, (long) ((1 - tokens) * refill)));
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            
+            send(lines);
+            lines.clear();
+        }
+    }
+    
+    private void send(List<String> lines) {
+        if (!bot.isConnected()) {
+            if (stats != null) {
+                stats.dropped(lines.size());
+            }
+            
+            return;
+        }
+        
+        for (String line : lines) {
+            try {
+                if (line.regionMatches(true, 0, "QUIT", 0, 4)
+                        && (line.length() == 4 || line.charAt(4) == ' ')) {
+                    quit(line);
+                } else {
+                    bot.sendLine(line);
+                }
+                
+                if (stats != null) {
+                    stats.lineOut(line);
+                }
+            } catch (RuntimeException e) {
+                if (stats != null) {
+                    stats.dropped(1);
+                }
+                
+                Utils.log("CHIRC", "Couldn't send line for " + bot.getID() 
+                        + ": " + e.getMessage(), Target.UNKNOWN);
+            }
+        }
+    }
+    
+    /**
+     * Quit through SocCore rather than as a raw line, so the disconnect
+     * counts as clean and isn't retried.
+     */
+    private void quit(String line) {
+        String message = line.length() > 5 ? line.substring(5).trim() : "";
+        
+        if (message.startsWith(":")) {
+            message = message.substring(1);
+        }
+        
+        if (message.isEmpty()) {
+            bot.quit();
+        } else {
+            bot.quit(message);
+        }
+    }
+}
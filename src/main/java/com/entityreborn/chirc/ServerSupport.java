@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * What a server told us it supports in its RPL_ISUPPORT (005) lines, such
+ * as how many targets a single PRIVMSG may have.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class ServerSupport {
+    private final ConcurrentMap<String, String> tokens = new ConcurrentHashMap<String, String>();
+    
+    /**
+     * Pick up the tokens from a raw line, if it's an 005.
+     */
+    public void changed(String line) {
+        if (line == null) {
+            return;
+        }
+        
+        int start = 0;
+        
+        // Skip any tags and the prefix.
+        while (start < line.length() && (line.charAt(start) == '@' || line.charAt(start) == ':')) {
+            start = line.indexOf(' ', start) + 1;
+            
+            if (start == 0) {
+                return;
+            }
+        }
+        
+        if (!line.startsWith("005 ", start)) {
+            return;
+        }
+        
+        // 005 <me> TOKEN TOKEN=value -TOKEN ... :are supported by this server
+        String[] parts = line.substring(start).split(" ");
+        
+        for (int i = 2; i < parts.length; i++) {
+            String token = parts[i];
+            
+            if (token.isEmpty()) {
+                continue;
+            }
+            
+            if (token.startsWith(":")) {
+                break;
+            }
+            
+            if (token.startsWith("-")) {
+                tokens.remove(token.substring(1).toUpperCase(Locale.ENGLISH));
+                continue;
+            }
+            
+            int equals = token.indexOf('=');
+            
+            if (equals == -1) {
+                tokens.put(token.toUpperCase(Locale.ENGLISH), "");
+            } else {
+                tokens.put(token.substring(0, equals).toUpperCase(Locale.ENGLISH),
+                        token.substring(equals + 1));
+            }
+        }
+    }
+    
+    public boolean has(String token) {
+        return tokens.containsKey(token);
+    }
+    
+    /**
+     * The value of a token, empty if it has none, or null if the server
+     * didn't send it.
+     */
+    public String get(String token) {
+        return tokens.get(token);
+    }
+    
+    /**
+     * How many comma separated targets the server allows for a command,
+     * from TARGMAX or the older MAXTARGETS. Defaults to one.
+     */
+    public int getTargetLimit(String command) {
+        String targmax = tokens.get("TARGMAX");
+        
+        if (targmax != null) {
+            for (String entry : targmax.split(",")) {
+                int colon = entry.indexOf(':');
+                
+                if (colon != -1 && entry.substring(0, colon).equalsIgnoreCase(command)) {
+                    // No number means no limit.
+                    return colon + 1 == entry.length() ? Integer.MAX_VALUE
+                            : parse(entry.substring(colon + 1));
+                }
+            }
+            
+            return 1;
+        }
+        
+        String max = tokens.get("MAXTARGETS");
+        
+        return max == null ? 1 : parse(max);
+    }
+    
+    private static int parse(String value) {
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+    
+    public void clear() {
+        tokens.clear();
+    }
+}
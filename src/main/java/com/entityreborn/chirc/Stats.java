@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for a single bot. None of them take a lock to update, so they're
+ * always on.
+ *
+ * Dispatch latency goes into a fixed histogram with four buckets per power of
+ * two microseconds, so percentiles are accurate to within about 20%. Only the
+ * dispatcher writes to it, so it's a plain atomic array rather than striped.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Stats {
+    private static final int BUCKETS = 160;
+    
+    private final LongAdder linesIn = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder linesOut = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder sends = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder[] events = new LongAdder[Events.eventCount()];
+    private final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+    private volatile long lastLine = 0;
+    
+    public Stats() {
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new LongAdder();
+        }
+    }
+    
+    public void lineIn(String line) {
+        linesIn.increment();
+        bytesIn.add(MessageSplitter.utf8Length(line, 0, line.length()) + 2);
+        lastLine = System.currentTimeMillis();
+    }
+    
+    public void lineOut(String line) {
+        linesOut.increment();
+        bytesOut.add(MessageSplitter.utf8Length(line, 0, line.length()) + 2);
+    }
+    
+    public void sent() {
+        sends.increment();
+    }
+    
+    /**
+     * Record queued lines that couldn't be sent.
+     */
+    public void dropped(int lines) {
+        dropped.add(lines);
+    }
+    
+    public void connectAttempt() {
+        connects.increment();
+    }
+    
+    public void fired(int event) {
+        if (event >= 0 && event < events.length) {
+            events[event].increment();
+        }
+    }
+    
+    /**
+     * Record how long an event waited between the line arriving and its
+     * handlers starting.
+     */
+    public void dispatched(long nanos) {
+        latency.incrementAndGet(bucket(Math.max(0, nanos / 1000)));
+    }
+    
+    public long getLinesIn() {
+        return linesIn.sum();
+    }
+    
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+    
+    public long getLinesOut() {
+        return linesOut.sum();
+    }
+    
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+    
+    public long getSends() {
+        return sends.sum();
+    }
+    
+    public long getDropped() {
+        return dropped.sum();
+    }
+    
+    public long getConnectAttempts() {
+        return connects.sum();
+    }
+    
+    public long getFired(int event) {
+        return events[event].sum();
+    }
+    
+    /**
+     * When the last line from the server arrived, or 0 if none has.
+     */
+    public long getLastLine() {
+        return lastLine;
+    }
+    
+    /**
+     * Dispatch latency percentiles in microseconds, for each of the given
+     * fractions (0.5 for the median). Returns -1s if nothing was recorded.
+     */
+    public long[] getLatency(double... fractions) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = latency.get(i);
+            total += counts[i];
+        }
+        
+        long[] retn = new long[fractions.length];
+        
+        for (int f = 0; f < fractions.length; f++) {
+            if (total == 0) {
+                retn[f] = -1;
+                continue;
+            }
+            
+            long rank = Math.max(1, (long) Math.ceil(fractions[f] * total));
+            long seen = 0;
+            
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                
+                if (seen >= rank) {
+                    retn[f] = upperBound(i);
+                    break;
+                }
+            }
+        }
+        
+        return retn;
+    }
+    
+    public long getLatencyCount() {
+        long total = 0;
+        
+        for (int i = 0; i < BUCKETS; i++) {
+            total += latency.get(i);
+        }
+        
+        return total;
+    }
+    
+    static int bucket(long micros) {
+        if (micros < 4) {
+            return (int) micros;
+        }
+        
+        int msb = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) ((micros >>> (msb - 2)) & 3);
+        
+        return Math.min(BUCKETS - 1, (msb - 1) * 4 + sub);
+    }
+    
+    static long upperBound(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        
+        int msb = bucket / 4 + 1;
+        long low = (long) (4 + bucket % 4) << (msb - 2);
+        
+        return low + (1L << (msb - 2)) - 1;
+    }
+}
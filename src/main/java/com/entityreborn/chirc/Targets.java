@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.entityreborn.socbot.SocBot;
+import com.entityreborn.socbot.Target;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers which user or channel each script supplied target name resolved
+ * to for a bot, so repeated sends to the same few targets skip SocCore's
+ * lookups. Entries are dropped when the name they resolved to parts, is
+ * kicked, quits or changes nick.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Targets {
+    // Scripts send to a handful of targets; this just bounds the worst case.
+    private static final int MAX = 256;
+    
+    private final ConcurrentMap<String, String> names = new ConcurrentHashMap<String, String>();
+    
+    /**
+     * The name of the user or channel a target refers to, or the target as
+     * given if the bot doesn't know it.
+     */
+    public String resolve(SocBot bot, String name) {
+        String cached = names.get(name);
+        
+        if (cached != null) {
+            return cached;
+        }
+        
+        Target target;
+        
+        if (Target.Util.isUser(name, bot)) {
+            target = bot.getUser(name);
+        } else {
+            target = bot.getChannel(name);
+        }
+        
+        // Not cached, so it's picked up once the bot does know it.
+        if (target == null) {
+            return name;
+        }
+        
+        if (names.size() >= MAX) {
+            names.clear();
+        }
+        
+        names.put(name, target.getName());
+        
+        return target.getName();
+    }
+    
+    /**
+     * Drop every entry that resolved to the given user or channel.
+     */
+    public void invalidate(String name) {
+        if (names.isEmpty() || name == null) {
+            return;
+        }
+        
+        Iterator<String> it = names.values().iterator();
+        
+        while (it.hasNext()) {
+            if (it.next().equalsIgnoreCase(name)) {
+                it.remove();
+            }
+        }
+    }
+    
+    public void clear() {
+        names.clear();
+    }
+}
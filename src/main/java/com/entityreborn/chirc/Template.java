@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A format string with %name% placeholders, split up once so filling it in
+ * is just appending the pieces.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Template {
+    private final String[] text;
+    private final int[] values;
+    
+    /**
+     * Placeholders are numbered in the order they're named here, which is
+     * the order fill() takes their values in.
+     */
+    public Template(String format, String... names) {
+        List<String> parts = new ArrayList<String>();
+        List<Integer> indexes = new ArrayList<Integer>();
+        int start = 0;
+        
+        while (true) {
+            int next = -1;
+            int index = -1;
+            
+            for (int i = 0; i < names.length; i++) {
+                int at = format.indexOf('%' + names[i] + '%', start);
+                
+                if (at != -1 && (next == -1 || at < next)) {
+                    next = at;
+                    index = i;
+                }
+            }
+            
+            if (next == -1) {
+                parts.add(format.substring(start));
+                break;
+            }
+            
+            parts.add(format.substring(start, next));
+            indexes.add(index);
+            start = next + names[index].length() + 2;
+        }
+        
+        text = parts.toArray(new String[parts.size()]);
+        values = new int[indexes.size()];
+        
+        for (int i = 0; i < values.length; i++) {
+            values[i] = indexes.get(i);
+        }
+    }
+    
+    public String fill(String... with) {
+        int length = 0;
+        
+        for (String part : text) {
+            length += part.length();
+        }
+        
+        StringBuilder out = new StringBuilder(length + 64);
+        
+        for (int i = 0; i < values.length; i++) {
+            out.append(text[i]).append(with[values[i]]);
+        }
+        
+        return out.append(text[values.length]).toString();
+    }
+}
@@ -34,8 +34,13 @@ import com.laytonsmith.core.extensions.AbstractExtension;
 import com.laytonsmith.core.extensions.MSExtension;
 import com.laytonsmith.core.natives.interfaces.Mixed;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  *
@@ -43,66 +48,291 @@ import java.util.Map;
  */
 @MSExtension("CHIRC")
 public class Tracking extends AbstractExtension {
-    private static final Map<String, SocBot> bots = new HashMap<String, SocBot>();
+    private static final ConcurrentMap<String, Tracked> bots = new ConcurrentHashMap<String, Tracked>();
     private static final Events events = new Events();
+    private static final Connector connector = new Connector();
+    private static final Reconnector reconnector = new Reconnector();
+    private static final Netsplits netsplits = new Netsplits();
+    private static final int FLATTEN_MAX = 256;
+    private static volatile MetaStore metaStore;
+    
+    /**
+     * Everything we keep for a single bot, stored under its case-folded id.
+     */
+    private static class Tracked {
+        private final SocBot bot;
+        private final Stats stats;
+        private final SendQueue queue;
+        private final Targets targets = new Targets();
+        private final ServerSupport support = new ServerSupport();
+        private final Commands commands = new Commands();
+        private final Capabilities caps = new Capabilities();
+        private final Batches batches = new Batches();
+        private final Who who = new Who();
+        // By case-folded channel name.
+        private final ConcurrentMap<String, ChannelSnapshot> snapshots = new ConcurrentHashMap<String, ChannelSnapshot>();
+        private final ConcurrentMap<String, Relay> relays = new ConcurrentHashMap<String, Relay>();
+        // By case-folded channel name.
+        private final ConcurrentMap<String, ChannelRelay> channelRelays = new ConcurrentHashMap<String, ChannelRelay>();
+
+        public Tracked(SocBot bot) {
+            this.bot = bot;
+            this.stats = new Stats();
+            this.queue = new SendQueue(bot, stats);
+        }
+    }
     
     @Override
     public void onStartup() {
         Utils.log("CHIRC", "v." + getVersion() + " loaded.", Target.UNKNOWN);
+        
+        if (events.getDispatcher().isStopped()) {
+            events.restart();
+        }
+        
+        String path = System.getProperty("chirc.meta.file");
+        
+        if (path != null) {
+            try {
+                metaStore = MetaStore.open(new File(path));
+                Utils.log("CHIRC", "Loaded stored metadata for " + metaStore.size() 
+                        + " users and channels.", Target.UNKNOWN);
+            } catch (IOException e) {
+                Utils.log("CHIRC", "Couldn't open metadata store " + path + ": " 
+                        + e.getMessage(), Target.UNKNOWN);
+            }
+        }
     }
     
     @Override
     public void onShutdown() {
         Utils.log("CHIRC", "v." + getVersion() + " stopping...", Target.UNKNOWN);
         
-        for (SocBot bot : bots.values()) {
-            bot.disconnect(true);
+        reconnector.shutdown();
+        netsplits.shutdown();
+        Relay.shutdown();
+        connector.shutdown();
+        
+        for (Tracked tracked : bots.values()) {
+            tracked.queue.shutdown();
+            tracked.bot.disconnect(true);
         }
         
         bots.clear();
         
+        // Last, since disconnecting fires events.
+        events.getDispatcher().shutdown();
+        
+        if (metaStore != null) {
+            metaStore.close();
+            metaStore = null;
+        }
+        
         Utils.log("CHIRC", "v." + getVersion() + " stopped", Target.UNKNOWN);
                 
     }
     
     public static String flatten(Mixed... args) {
-        String retn = "";
+        StringBuilder retn = new StringBuilder();
         
         for (int i = 0; i < args.length; i++) {
-            retn += args[i].val();
+            if (i != 0) {
+                retn.append(", ");
+            }
+            
+            String val = args[i].val();
             
-            if (i != args.length - 1) {
-                retn += ", ";
+            if (val.length() > FLATTEN_MAX) {
+                retn.append(val, 0, FLATTEN_MAX).append("...");
+            } else {
+                retn.append(val);
             }
         }
         
-        return retn;
+        return retn.toString();
+    }
+    
+    /**
+     * Find the tracked bot for a script supplied id. Ids are usually already
+     * lowercase, so try the id as given before folding it.
+     */
+    private static Tracked lookup(String id) {
+        Tracked tracked = bots.get(id);
+        
+        if (tracked == null) {
+            String key = id.toLowerCase();
+            
+            if (!key.equals(id)) {
+                tracked = bots.get(key);
+            }
+        }
+        
+        return tracked;
     }
     
     public static SocBot create(String id) {
-        if (bots.containsKey(id.toLowerCase())) {
+        String key = id.toLowerCase();
+        
+        if (bots.containsKey(key)) {
+            return null;
+        }
+        
+        Tracked tracked = new Tracked(new SocBot(key));
+        
+        if (bots.putIfAbsent(key, tracked) != null) {
             return null;
         }
         
         Utils.verbose("CHIRC", "Creating irc bot with id " + id, Target.UNKNOWN);
         
-        SocBot bot = new SocBot(id.toLowerCase());
+        EventManager.registerEvents(events, tracked.bot);
+        
+        return tracked.bot;
+    }
+    
+    public static Events getEvents() {
+        return events;
+    }
+    
+    public static Connector getConnector() {
+        return connector;
+    }
+    
+    /**
+     * The persistent metadata store, or null if it isn't turned on.
+     */
+    public static MetaStore getMetaStore() {
+        return metaStore;
+    }
+    
+    public static Reconnector getReconnector() {
+        return reconnector;
+    }
+    
+    public static Netsplits getNetsplits() {
+        return netsplits;
+    }
+    
+    /**
+     * All bots currently tracked. Safe to iterate while bots are being
+     * created or destroyed.
+     */
+    public static Collection<SocBot> getBots() {
+        List<SocBot> retn = new ArrayList<SocBot>(bots.size());
+        
+        for (Tracked tracked : bots.values()) {
+            retn.add(tracked.bot);
+        }
         
-        EventManager.registerEvents(events, bot);
+        return retn;
+    }
+    
+    /**
+     * The counters for a bot, or null if it's no longer tracked.
+     */
+    public static Stats getStats(SocBot bot) {
+        Tracked tracked = bots.get(bot.getID());
         
-        bots.put(id.toLowerCase(), bot);
+        return tracked == null ? null : tracked.stats;
+    }
+    
+    /**
+     * The target cache for a bot, or null if it's no longer tracked.
+     */
+    public static Targets getTargets(SocBot bot) {
+        Tracked tracked = bots.get(bot.getID());
         
-        return bot;
+        return tracked == null ? null : tracked.targets;
+    }
+    
+    /**
+     * What the bot's server supports, or null if it's no longer tracked.
+     */
+    public static ServerSupport getSupport(SocBot bot) {
+        Tracked tracked = bots.get(bot.getID());
+        
+        return tracked == null ? null : tracked.support;
+    }
+    
+    /**
+     * The IRCv3 capabilities for a bot, or null if it's no longer tracked.
+     */
+    public static Capabilities getCapabilities(SocBot bot) {
+        Tracked tracked = bots.get(bot.getID());
+        
+        return tracked == null ? null : tracked.caps;
+    }
+    
+    /**
+     * The open BATCH blocks for a bot, or null if it's no longer tracked.
+     */
+    public static Batches getBatches(SocBot bot) {
+        Tracked tracked = bots.get(bot.getID());
+        
+        return tracked == null ? null : tracked.batches;
+    }
+    
+    /**
+     * The cached user lists of a bot's channels, or null if it's no longer
+     * tracked.
+     */
+    public static ConcurrentMap<String, ChannelSnapshot> getSnapshots(SocBot bot) {
+        Tracked tracked = bots.get(bot.getID());
+        
+        return tracked == null ? null : tracked.snapshots;
+    }
+    
+    /**
+     * The WHO tracking for a bot, or null if it's no longer tracked.
+     */
+    public static Who getWho(SocBot bot) {
+        Tracked tracked = bots.get(bot.getID());
+        
+        return tracked == null ? null : tracked.who;
+    }
+    
+    /**
+     * The commands registered for a bot, or null if it's no longer tracked.
+     */
+    public static Commands getCommands(SocBot bot) {
+        Tracked tracked = bots.get(bot.getID());
+        
+        return tracked == null ? null : tracked.commands;
+    }
+    
+    /**
+     * The chat relays for a bot by name, or null if it's no longer tracked.
+     */
+    public static ConcurrentMap<String, Relay> getRelays(SocBot bot) {
+        Tracked tracked = bots.get(bot.getID());
+        
+        return tracked == null ? null : tracked.relays;
+    }
+    
+    /**
+     * The channels relayed to the server for a bot, by case-folded name, or
+     * null if it's no longer tracked.
+     */
+    public static ConcurrentMap<String, ChannelRelay> getChannelRelays(SocBot bot) {
+        Tracked tracked = bots.get(bot.getID());
+        
+        return tracked == null ? null : tracked.channelRelays;
+    }
+    
+    public static SendQueue getQueue(SocBot bot) {
+        Tracked tracked = bots.get(bot.getID());
+        
+        return tracked == null ? null : tracked.queue;
     }
     
     public static SocBot get(String id, Target t) {
-        SocBot bot = bots.get(id.toLowerCase());
+        Tracked tracked = lookup(id);
         
-        if (bot == null) {
+        if (tracked == null) {
             throw new CRENotFoundException("That id doesn't exist!", t);
         }
         
-        return bot;
+        return tracked.bot;
     }
     
     public static SocBot getConnected(String id, Target t) {
@@ -116,12 +346,21 @@ public class Tracking extends AbstractExtension {
     }
     
     public static void destroy(String id, Target t) {
-        SocBot bot = bots.remove(id.toLowerCase());
+        Tracked tracked = bots.remove(id.toLowerCase());
         
-        if (bot != null) {
+        if (tracked != null) {
             Utils.verbose("CHIRC", "Destroying bot with id " + id, t);
             
-            bot.disconnect(true);
+            reconnector.clear(tracked.bot);
+            
+            tracked.commands.clear();
+            
+            for (Relay relay : tracked.relays.values()) {
+                relay.remove();
+            }
+            
+            tracked.queue.shutdown();
+            tracked.bot.disconnect(true);
         } else {
             throw new CRENotFoundException("That id doesn't exist!", t);
         }
@@ -24,8 +24,10 @@
 
 package com.entityreborn.chirc;
 
+import com.laytonsmith.core.LogLevel;
 import com.laytonsmith.core.MSLog;
 import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.natives.interfaces.Mixed;
 
 /**
  *
@@ -57,8 +59,25 @@ public class Utils {
         MSLog.GetLogger().i(MSLog.Tags.EXTENSIONS, "[" + tag + "] " + line, targ);
     }
     
+    public static boolean isVerbose() {
+        return MSLog.GetLogger().WillLog(MSLog.Tags.EXTENSIONS, LogLevel.VERBOSE);
+    }
+    
     public static void verbose(String tag, String line, Target targ) {
-        MSLog.GetLogger().v(MSLog.Tags.EXTENSIONS, "[" + tag + "] " + line, targ);
+        if (isVerbose()) {
+            MSLog.GetLogger().v(MSLog.Tags.EXTENSIONS, "[" + tag + "] " + line, targ);
+        }
+    }
+    
+    /**
+     * Trace a function call. The arguments are only flattened when verbose
+     * logging is on.
+     */
+    public static void verbose(String tag, String function, Mixed[] args, Target targ) {
+        if (isVerbose()) {
+            MSLog.GetLogger().v(MSLog.Tags.EXTENSIONS, "[" + tag + "] " + function
+                    + ":" + Tracking.flatten(args), targ);
+        }
     }
     
 }
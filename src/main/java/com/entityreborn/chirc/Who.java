@@ -0,0 +1,277 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import com.entityreborn.socbot.SocBot;
+import com.entityreborn.socbot.User;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fills in the hostmask, account and away status of everyone in a channel
+ * once the bot joins it, from a single WHO. Servers with WHOX get
+ * "WHO #chan %tnuhaf" and answer with 354s tagged with our token, which
+ * are kept from scripts. The rest get a plain WHO, which has no account;
+ * its replies can't be told apart from a script's own WHO, so they're read
+ * but still passed on. Requests go through the send queue like anything
+ * else, so joining many channels at once is paced.
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class Who {
+    /** Marks our WHOX replies apart from any a script asks for. */
+    public static final String TOKEN = "152";
+    
+    /**
+     * What WHO told us about a user.
+     */
+    public static class Info {
+        private volatile String ident;
+        private volatile String host;
+        private volatile String account;
+        private volatile boolean away;
+        
+        public String getIdent() {
+            return ident;
+        }
+        
+        public String getHost() {
+            return host;
+        }
+        
+        /**
+         * The services account the user is logged in to, or null.
+         */
+        public String getAccount() {
+            return account;
+        }
+        
+        public boolean isAway() {
+            return away;
+        }
+    }
+    
+    // What we know of each user, by case-folded nick. Kept here rather
+    // than in the user's metadata, where scripts could overwrite it.
+    private final Map<String, Info> users = new ConcurrentHashMap<String, Info>();
+    // Channels we're waiting on a WHO for, case-folded, and whether it was
+    // a WHOX.
+    private final Map<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+    // The thread handling one of our replies, if any.
+    private volatile Thread handling;
+    
+    /**
+     * What WHO told us about a user, or null if it hasn't been asked.
+     */
+    public static Info of(SocBot bot, User user) {
+        Who who = Tracking.getWho(bot);
+        
+        return who == null ? null : who.users.get(MetaStore.fold(user.getName()));
+    }
+    
+    /**
+     * The user's hostmask as nick!user@host, from WHO if we have it,
+     * otherwise whatever SocCore last saw, with * for any part not known.
+     */
+    public static String hostmask(SocBot bot, User user) {
+        return Glob.hostmask(user.getName(), seen(bot, user));
+    }
+    
+    /**
+     * As much of the user's hostmask as we've seen, in whatever form it
+     * came: from WHO if we have it, otherwise as SocCore last saw it.
+     */
+    static String seen(SocBot bot, User user) {
+        Info info = of(bot, user);
+        
+        if (info == null || info.host == null) {
+            return user.getHostmask();
+        }
+        
+        return user.getName() + '!' + info.ident + '@' + info.host;
+    }
+    
+    /**
+     * Ask who's in a channel the bot just joined.
+     */
+    public void request(SocBot bot, String channel) {
+        ServerSupport support = Tracking.getSupport(bot);
+        boolean whox = support != null && support.has("WHOX");
+        String line;
+        
+        if (whox) {
+            line = "WHO " + channel + " %tnuhaf," + TOKEN;
+        } else {
+            line = "WHO " + channel;
+        }
+        
+        pending.put(MetaStore.fold(channel), whox);
+        
+        try {
+            Functions.enqueue(bot, line, Target.UNKNOWN);
+        } catch (ConfigRuntimeException e) {
+            pending.remove(MetaStore.fold(channel));
+            Utils.log("CHIRC", "Couldn't ask who's in " + channel + ": " + e.getMessage(),
+                    Target.UNKNOWN);
+        }
+    }
+    
+    /**
+     * Pick up a WHO reply from a raw line, if it's one of ours.
+     */
+    public void changed(SocBot bot, String line) {
+        handling = null;
+        
+        if (line == null) {
+            return;
+        }
+        
+        if (!users.isEmpty() && (line.indexOf(" NICK ") != -1 || line.indexOf(" QUIT") != -1)) {
+            moved(line);
+        }
+        
+        if (pending.isEmpty() || (line.indexOf(" 354 ") == -1
+                && line.indexOf(" 352 ") == -1 && line.indexOf(" 315 ") == -1)) {
+            return;
+        }
+        
+        List<String> parts = MessageTags.split(line);
+        
+        if (parts.size() < 3) {
+            return;
+        }
+        
+        String numeric = parts.get(0);
+        
+        if (numeric.equals("354")) {
+            // 354 <me> <token> <user> <host> <nick> <flags> <account>
+            if (parts.size() < 8 || !parts.get(2).equals(TOKEN)) {
+                return;
+            }
+            
+            update(parts.get(5), parts.get(3), parts.get(4), parts.get(6), parts.get(7));
+        } else if (numeric.equals("352")) {
+            // 352 <me> <channel> <user> <host> <server> <nick> <flags> :<hops> <realname>
+            if (parts.size() < 8 || !Boolean.FALSE.equals(pending.get(MetaStore.fold(parts.get(2))))) {
+                return;
+            }
+            
+            update(parts.get(6), parts.get(3), parts.get(4), parts.get(7), null);
+            
+            // Might be a script's own WHO, so let it through.
+            return;
+        } else if (numeric.equals("315")) {
+            if (!Boolean.TRUE.equals(pending.remove(MetaStore.fold(parts.get(2))))) {
+                return;
+            }
+        } else {
+            return;
+        }
+        
+        handling = Thread.currentThread();
+    }
+    
+    /**
+     * Follow a user's info across a NICK, and drop it on QUIT.
+     */
+    private void moved(String line) {
+        List<String> parts = MessageTags.split(line);
+        String nick = source(line);
+        
+        if (parts.isEmpty() || nick == null) {
+            return;
+        }
+        
+        if (parts.get(0).equals("NICK") && parts.size() >= 2) {
+            Info info = users.remove(MetaStore.fold(nick));
+            
+            if (info != null) {
+                users.put(MetaStore.fold(parts.get(1)), info);
+            }
+        } else if (parts.get(0).equals("QUIT")) {
+            users.remove(MetaStore.fold(nick));
+        }
+    }
+    
+    /**
+     * The nick a raw line came from, or null if it has no prefix.
+     */
+    private static String source(String line) {
+        // Past any tags; with no space after them, start stays on the @.
+        int start = line.startsWith("@") ? line.indexOf(' ') + 1 : 0;
+        
+        while (start > 0 && start < line.length() && line.charAt(start) == ' ') {
+            start++;
+        }
+        
+        if (start >= line.length() || line.charAt(start) != ':') {
+            return null;
+        }
+        
+        int end = line.indexOf(' ', start);
+        int bang = line.indexOf('!', start);
+        
+        if (end == -1) {
+            return null;
+        }
+        
+        return line.substring(start + 1, bang == -1 || bang > end ? end : bang);
+    }
+    
+    private void update(String nick, String ident, String host, String flags, String account) {
+        String key = MetaStore.fold(nick);
+        Info info = users.get(key);
+        
+        if (info == null) {
+            info = new Info();
+            users.put(key, info);
+        }
+        
+        info.ident = ident;
+        info.host = host;
+        info.away = flags.startsWith("G");
+        
+        if (account != null) {
+            info.account = account.equals("0") ? null : account;
+        }
+    }
+    
+    /**
+     * Whether the line being handled on this thread is a reply to one of
+     * our WHOs, so it needn't fire irc_numeric.
+     */
+    public boolean isHandled() {
+        return handling == Thread.currentThread();
+    }
+    
+    public void clear() {
+        users.clear();
+        pending.clear();
+        handling = null;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import static com.entityreborn.chirc.ColorTranslator.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class MessageSplitterTest extends TestCase {
+    private static int bytes(String text) {
+        return MessageSplitter.utf8Length(text, 0, text.length());
+    }
+    
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        
+        return builder.toString();
+    }
+    
+    private static String join(List<String> parts) {
+        StringBuilder builder = new StringBuilder();
+        
+        for (String part : parts) {
+            builder.append(part);
+        }
+        
+        return builder.toString();
+    }
+    
+    public void testUtf8Length() throws Exception {
+        assertEquals(3, bytes("abc"));
+        assertEquals(2, bytes("é"));
+        assertEquals(3, bytes("€"));
+        assertEquals(4, bytes("😀"));
+        
+        for (String text : new String[] {"abc", "été", "€5", "a😀b"}) {
+            assertEquals(text, text.getBytes("UTF-8").length, bytes(text));
+        }
+    }
+    
+    public void testShortTextIsOnePiece() {
+        assertEquals(Arrays.asList("hello world"), MessageSplitter.split("hello world", 20));
+        assertEquals(Arrays.asList(""), MessageSplitter.split("", 20));
+    }
+    
+    public void testBreaksAtSpaces() {
+        List<String> parts = MessageSplitter.split("aaaa bbbb cccc", 9);
+        
+        assertEquals(Arrays.asList("aaaa bbbb", "cccc"), parts);
+    }
+    
+    public void testSplitsByUtf8Bytes() {
+        String text = repeat("é", 10);
+        List<String> parts = MessageSplitter.split(text, 7);
+        
+        for (String part : parts) {
+            assertTrue(part, bytes(part) <= 7);
+        }
+        
+        assertEquals(Arrays.asList("ééé", "ééé", "ééé", "é"), parts);
+        assertEquals(text, join(parts));
+    }
+    
+    public void testKeepsSurrogatePairs() {
+        String text = repeat("😀", 5);
+        List<String> parts = MessageSplitter.split(text, 6);
+        
+        assertEquals(5, parts.size());
+        
+        for (String part : parts) {
+            assertEquals("😀", part);
+        }
+    }
+    
+    public void testCarriesStyles() {
+        List<String> parts = MessageSplitter.split(BOLD + "aaaa bbbb", 6);
+        
+        assertEquals(Arrays.asList(BOLD + "aaaa", BOLD + "bbbb"), parts);
+    }
+    
+    public void testStyleTurnedOffIsNotCarried() {
+        List<String> parts = MessageSplitter.split(BOLD + "aa" + BOLD + " bbbb", 6);
+        
+        assertEquals(Arrays.asList(BOLD + "aa" + BOLD, "bbbb"), parts);
+    }
+    
+    public void testCarriesColors() {
+        List<String> parts = MessageSplitter.split(COLOR + "4aaaa 1234", 7);
+        
+        assertEquals(Arrays.asList(COLOR + "4aaaa", COLOR + "041234"), parts);
+    }
+    
+    public void testResetClearsCarry() {
+        List<String> parts = MessageSplitter.split(COLOR + "4" + BOLD + "aa" + RESET + " bbbb", 8);
+        
+        assertEquals("bbbb", parts.get(parts.size() - 1));
+    }
+    
+    public void testLineBreaksEndPieces() {
+        assertEquals(Arrays.asList("one", "two", "three"),
+                MessageSplitter.split("one\r\ntwo\nthree", 100));
+        assertEquals(Arrays.asList("hi"), MessageSplitter.split("\r\nhi\r\n\n", 100));
+    }
+    
+    public void testLineBreaksCantInjectCommands() {
+        List<String> lines = new ArrayList<String>();
+        Functions.addMessage(lines, 20, "#chan", "hi\r\nQUIT :bye", false);
+        
+        assertEquals(Arrays.asList("PRIVMSG #chan :hi", "PRIVMSG #chan :QUIT :bye"), lines);
+    }
+}
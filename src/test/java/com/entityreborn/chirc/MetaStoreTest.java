@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013 Jason Unger <entityreborn@gmail.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.entityreborn.chirc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jason Unger <entityreborn@gmail.com>
+ */
+public class MetaStoreTest extends TestCase {
+    private File file;
+    
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("chirc-meta", ".log");
+        file.delete();
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+    
+    public void testSetRemoveAndReopen() throws Exception {
+        MetaStore store = MetaStore.open(file);
+        store.set("net", MetaStore.USER, "Bob[x]", "greeting", "\"hi\"");
+        store.set("net", MetaStore.USER, "bob{X}", "count", "2");
+        store.set("net", MetaStore.CHANNEL, "#Chan", "topic", "\"old\"");
+        store.set("net", MetaStore.CHANNEL, "#chan", "topic", "\"new\"");
+        store.set("other", MetaStore.USER, "bob[x]", "greeting", "\"yo\"");
+        store.remove("net", MetaStore.USER, "BOB[X]", "count");
+        store.close();
+        
+        store = MetaStore.open(file);
+        
+        try {
+            Map<String, String> bob = store.get("net", MetaStore.USER, "bob{x}");
+            
+            assertEquals(1, bob.size());
+            assertEquals("\"hi\"", bob.get("greeting"));
+            assertEquals("\"new\"", store.get("net", MetaStore.CHANNEL, "#CHAN").get("topic"));
+            assertEquals("\"yo\"", store.get("other", MetaStore.USER, "Bob[x]").get("greeting"));
+            assertTrue(store.get("net", MetaStore.USER, "alice").isEmpty());
+            assertEquals(3, store.size());
+        } finally {
+            store.close();
+        }
+    }
+    
+    public void testRejectsOtherFiles() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeBytes("not a store");
+        raf.close();
+        
+        try {
+            MetaStore.open(file);
+            fail("Opened a file that isn't a store");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+    
+    public void testTornLastRecordIsDropped() throws Exception {
+        MetaStore store = MetaStore.open(file);
+        store.set("net", MetaStore.USER, "bob", "a", "1");
+        store.set("net", MetaStore.USER, "bob", "b", "2");
+        store.close();
+        
+        // Cut the file off partway into the second record's body.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        // Records follow an 8 byte header, each as length, CRC and body.
+        raf.seek(8);
+        int second = 8 + 8 + raf.readInt();
+        raf.setLength(second + 8 + 3);
+        raf.close();
+        
+        store = MetaStore.open(file);
+        
+        try {
+            Map<String, String> bob = store.get("net", MetaStore.USER, "bob");
+            
+            assertEquals("1", bob.get("a"));
+            assertNull(bob.get("b"));
+            
+            // Appends carry on from the last good record.
+            store.set("net", MetaStore.USER, "bob", "c", "3");
+        } finally {
+            store.close();
+        }
+        
+        store = MetaStore.open(file);
+        
+        try {
+            Map<String, String> bob = store.get("net", MetaStore.USER, "bob");
+            
+            assertEquals(2, bob.size());
+            assertEquals("3", bob.get("c"));
+        } finally {
+            store.close();
+        }
+    }
+    
+    public void testCompaction() throws Exception {
+        MetaStore store = MetaStore.open(file);
+        
+        try {
+            store.set("net", MetaStore.USER, "alice", "kept", "\"yes\"");
+            
+            // Well past a megabyte of overwritten values.
+            for (int i = 0; i < 40000; i++) {
+                store.set("net", MetaStore.USER, "bob", "counter", "\"" + i + " padding padding\"");
+            }
+            
+            long deadline = System.currentTimeMillis() + 10000;
+            
+            while (store.isCompacting() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            
+            assertFalse(store.isCompacting());
+            store.remove("net", MetaStore.USER, "alice", "kept");
+            store.set("net", MetaStore.USER, "alice", "after", "1");
+        } finally {
+            store.close();
+        }
+        
+        // Without compacting, the log would have grown past its first
+        // megabyte.
+        assertTrue(file.length() <= 1 << 20);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        
+        store = MetaStore.open(file);
+        
+        try {
+            assertEquals("\"39999 padding padding\"",
+                    store.get("net", MetaStore.USER, "bob").get("counter"));
+            
+            Map<String, String> alice = store.get("net", MetaStore.USER, "alice");
+            
+            assertEquals(1, alice.size());
+            assertEquals("1", alice.get("after"));
+        } finally {
+            store.close();
+        }
+    }
+}